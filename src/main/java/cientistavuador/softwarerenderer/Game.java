@@ -9,6 +9,8 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.event.KeyEvent;
 import cientistavuador.softwarerenderer.camera.FreeCamera;
+import cientistavuador.softwarerenderer.render.SoftwareRenderer.BlendMode;
+import cientistavuador.softwarerenderer.render.SoftwareRenderer.Mesh;
 import cientistavuador.softwarerenderer.render.SoftwareRenderer.Light;
 import cientistavuador.softwarerenderer.render.SoftwareRenderer.PointLight;
 import cientistavuador.softwarerenderer.render.SoftwareRenderer;
@@ -50,7 +52,7 @@ public class Game {
     private boolean textEnabled = true;
     private final FreeCamera camera = new FreeCamera();
 
-    private final SoftwareRenderer renderer = new SoftwareRenderer(400, 300);
+    private final SoftwareRenderer renderer = new SoftwareRenderer(400, 300, (Main.USE_MSAA ? 4 : 1));
     private float rotation = 0f;
 
     private Throwable imageThreadException = null;
@@ -71,23 +73,23 @@ public class Game {
         }
     }, "Image-Thread");
 
-    private final float[] cottageVertices;
+    private final Mesh cottageMesh;
     private final Texture cottageTexture;
     private final Matrix4f cottageMatrix = new Matrix4f()
             .translate(82.61f, 59.5f, -30.05f)
             .scale(0.5f)
             .rotateY((float) Math.toRadians(45f));
 
-    private final float[] terrainVertices;
+    private final Mesh terrainMesh;
     private final Texture terrainTexture;
     private final Matrix4f terrainMatrix = new Matrix4f()
             .scale(512f);
 
-    private final float[] colaVertices;
+    private final Mesh colaMesh;
     private final Texture colaTexture;
     private final Matrix4f colaMatrix = new Matrix4f();
 
-    private final float[] lightIconVertices;
+    private final Mesh lightIconMesh;
     private final Texture pointLightIcon;
     private final Texture spotLightIcon;
     private final Texture lightColorIcon;
@@ -100,6 +102,7 @@ public class Game {
 
     private final SpotLight flashlight = new SpotLight();
     private boolean flashlightEnabled = false;
+    private boolean depthPrePassEnabled = false;
 
     private boolean saveColorBuffer = false;
     private boolean saveDepthBuffer = false;
@@ -108,19 +111,19 @@ public class Game {
 
     private Game() {
         //load 3d model, texture and model matrix
-        this.cottageVertices = loadModel("cottage.obj");
-        this.terrainVertices = loadModel("terrain.obj");
-        this.colaVertices = loadModel("ciencola.obj");
-        this.lightIconVertices = loadModel("billboard.obj");
-        this.cottageTexture = SoftwareRenderer.wrapImageToTexture(ImageResources.read("cottage_diffuse.png"));
-        this.terrainTexture = SoftwareRenderer.wrapImageToTexture(ImageResources.read("grass09.png"));
-        this.colaTexture = SoftwareRenderer.wrapImageToTexture(ImageResources.read("ciencola_diffuse.png"));
-        this.pointLightIcon = SoftwareRenderer.wrapImageToTexture(ImageResources.read("pointlight.png"));
-        this.spotLightIcon = SoftwareRenderer.wrapImageToTexture(ImageResources.read("spotlight.png"));
-        this.lightColorIcon = SoftwareRenderer.wrapImageToTexture(ImageResources.read("lightcolor.png"));
+        this.cottageMesh = loadModel("cottage.obj");
+        this.terrainMesh = loadModel("terrain.obj");
+        this.colaMesh = loadModel("ciencola.obj");
+        this.lightIconMesh = loadModel("billboard.obj");
+        this.cottageTexture = SoftwareRenderer.imageToTexture(ImageResources.read("cottage_diffuse.png"));
+        this.terrainTexture = SoftwareRenderer.imageToTexture(ImageResources.read("grass09.png"));
+        this.colaTexture = SoftwareRenderer.imageToTexture(ImageResources.read("ciencola_diffuse.png"));
+        this.pointLightIcon = SoftwareRenderer.imageToTexture(ImageResources.read("pointlight.png"));
+        this.spotLightIcon = SoftwareRenderer.imageToTexture(ImageResources.read("spotlight.png"));
+        this.lightColorIcon = SoftwareRenderer.imageToTexture(ImageResources.read("lightcolor.png"));
     }
 
-    private float[] loadModel(String name) {
+    private Mesh loadModel(String name) {
         try (BufferedReader reader
                 = new BufferedReader(
                         new InputStreamReader(
@@ -214,7 +217,7 @@ public class Game {
         Future<Texture> offscreenResult = CompletableFuture.supplyAsync(() -> {
             this.offscreenRenderer.getClearColor().set(0.1f, 0.1f, 0.1f, 0.5f);
             this.offscreenRenderer.clearBuffers();
-            this.offscreenRenderer.setMesh(this.colaVertices);
+            this.offscreenRenderer.setMesh(this.colaMesh);
             this.offscreenRenderer.setTexture(this.colaTexture);
             this.offscreenRenderer.getProjection().identity().perspective(90f, 800f / 600f, 0.01f, 100f);
             this.offscreenRenderer.getView().identity();
@@ -255,43 +258,32 @@ public class Game {
 
         int renderedVertices = 0;
 
-        //terrain
-        if (this.terrainEnabled) {
-            this.renderer.setMesh(this.terrainVertices);
-            this.renderer.getModel().set(this.terrainMatrix);
-            this.renderer.setTexture(this.terrainTexture);
-
-            renderedVertices = this.renderer.render();
-
-            Main.NUMBER_OF_VERTICES += renderedVertices;
-            Main.NUMBER_OF_DRAWCALLS++;
+        if (this.depthPrePassEnabled) {
+            this.renderer.beginDepthPrePass();
+            renderOpaque();
+            this.renderer.beginShadingPass();
+            renderOpaque();
+            this.renderer.endDepthPrePass();
+        } else {
+            renderOpaque();
         }
 
-        //cottage
-        this.renderer.setMesh(this.cottageVertices);
-        this.renderer.getModel().set(this.cottageMatrix);
-        this.renderer.setTexture(this.cottageTexture);
-
-        renderedVertices = this.renderer.render();
-
-        Main.NUMBER_OF_VERTICES += renderedVertices;
-        Main.NUMBER_OF_DRAWCALLS++;
-
-        //cola
-        this.renderer.setMesh(this.colaVertices);
-        this.renderer.getModel().set(this.colaMatrix);
-        this.renderer.setTexture(this.colaTexture);
-
-        renderedVertices = this.renderer.render();
+        //deferred lighting
+        if (this.renderer.isDeferredShadingEnabled()) {
+            this.renderer.shadeDeferred();
+        }
 
-        Main.NUMBER_OF_VERTICES += renderedVertices;
-        Main.NUMBER_OF_DRAWCALLS++;
+        //transparent draws, they can be made in any order
+        this.renderer.setBlendMode(BlendMode.ORDER_INDEPENDENT);
 
         if (this.lightingEnabled) {
             //lights
-            this.renderer.setMesh(this.lightIconVertices);
+            this.renderer.setMesh(this.lightIconMesh);
             this.renderer.setBillboardingEnabled(true);
             this.renderer.setLightingEnabled(false);
+            //the icons are mostly transparent, keep the soft edges but skip the empty texels
+            this.renderer.setAlphaTestEnabled(true);
+            this.renderer.setAlphaTestThreshold(1f / 255f);
             for (Light light : this.renderer.getLights()) {
                 this.renderer.getModel().identity().translate(light.getPosition());
 
@@ -322,12 +314,13 @@ public class Game {
 
                 this.renderer.getColor().set(1f);
             }
+            this.renderer.setAlphaTestEnabled(false);
             this.renderer.setBillboardingEnabled(false);
             this.renderer.setLightingEnabled(true);
         }
 
         //render offscreen renderer quad
-        this.renderer.setMesh(this.lightIconVertices);
+        this.renderer.setMesh(this.lightIconMesh);
         this.renderer.setBillboardingEnabled(true);
         this.renderer.setLightingEnabled(false);
         this.renderer
@@ -345,6 +338,11 @@ public class Game {
         this.renderer.setBillboardingEnabled(false);
         this.renderer.setLightingEnabled(true);
 
+        this.renderer.compositeTransparency();
+        this.renderer.setBlendMode(BlendMode.ALPHA);
+
+        this.renderer.resolve();
+
         if (this.saveColorBuffer) {
             this.saveColorBuffer = false;
             try {
@@ -396,10 +394,14 @@ public class Game {
                 "  M - Multithread [" + (this.renderer.isMultithreadEnabled() ? "Enabled" : "Disabled") + "]",
                 "  B - Bilinear Filtering [" + (this.renderer.isBilinearFilteringEnabled() ? "Enabled" : "Disabled") + "]",
                 "  R - Resolution [" + this.renderer.getWidth() + "x" + this.renderer.getHeight() + "]",
+                "  X - Multisampling [" + (this.renderer.getSamples() == 1 ? "Disabled" : this.renderer.getSamples() + "x") + "]",
                 "  L - Lighting [" + (this.lightingEnabled ? "Enabled" : "Disabled") + "]",
                 "  N - Terrain [" + (this.terrainEnabled ? "Enabled" : "Disabled") + "]",
                 "  F - Flashlight [" + (this.flashlightEnabled ? "Enabled" : "Disabled") + "]",
                 "  U - Sun [" + (this.renderer.isSunEnabled() ? "Enabled" : "Disabled") + "]",
+                "  G - Deferred Shading [" + (this.renderer.isDeferredShadingEnabled() ? "Enabled" : "Disabled") + "]",
+                "  Z - Depth Pre-Pass [" + (this.depthPrePassEnabled ? "Enabled" : "Disabled") + "]",
+                "  V - Vectorized Spans [" + (!SoftwareRenderer.isVectorizationSupported() ? "Unsupported" : (this.renderer.isVectorizationEnabled() ? "Enabled" : "Disabled")) + "]",
                 "  C - Save Color Buffer to 'color_buffer.png'",
                 "  P - Save Depth Buffer to 'depth_buffer.png'"
             };
@@ -424,6 +426,59 @@ public class Game {
         return String.format("%.2f", d);
     }
 
+    private void renderOpaque() {
+        int renderedVertices;
+
+        this.renderer.setBlendMode(BlendMode.OPAQUE);
+
+        //terrain
+        if (this.terrainEnabled) {
+            this.renderer.setMesh(this.terrainMesh);
+            this.renderer.getModel().set(this.terrainMatrix);
+            this.renderer.setTexture(this.terrainTexture);
+
+            renderedVertices = this.renderer.render();
+
+            Main.NUMBER_OF_VERTICES += renderedVertices;
+            Main.NUMBER_OF_DRAWCALLS++;
+        }
+
+        //cottage
+        this.renderer.setMesh(this.cottageMesh);
+        this.renderer.getModel().set(this.cottageMatrix);
+        this.renderer.setTexture(this.cottageTexture);
+
+        renderedVertices = this.renderer.render();
+
+        Main.NUMBER_OF_VERTICES += renderedVertices;
+        Main.NUMBER_OF_DRAWCALLS++;
+
+        //cola
+        this.renderer.setMesh(this.colaMesh);
+        this.renderer.getModel().set(this.colaMatrix);
+        this.renderer.setTexture(this.colaTexture);
+
+        renderedVertices = this.renderer.render();
+
+        Main.NUMBER_OF_VERTICES += renderedVertices;
+        Main.NUMBER_OF_DRAWCALLS++;
+
+        this.renderer.setBlendMode(BlendMode.ALPHA);
+    }
+
+    //the surfaces can only be replaced while the image thread is not reading one
+    private void waitImageThread() {
+        try {
+            this.imageThreadExchanger.exchange(null);
+        } catch (InterruptedException ex) {
+            if (this.imageThreadException != null) {
+                throw new RuntimeException("Exception in Image Thread", this.imageThreadException);
+            } else {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
     public void keyCallback(KeyEvent e, boolean pressed) {
         if (e.getKeyCode() == KeyEvent.VK_T && pressed) {
             this.textEnabled = !this.textEnabled;
@@ -435,15 +490,7 @@ public class Game {
             this.renderer.setBilinearFilteringEnabled(!this.renderer.isBilinearFilteringEnabled());
         }
         if (e.getKeyCode() == KeyEvent.VK_R && pressed) {
-            try {
-                this.imageThreadExchanger.exchange(null);
-            } catch (InterruptedException ex) {
-                if (this.imageThreadException != null) {
-                    throw new RuntimeException("Exception in Image Thread", this.imageThreadException);
-                } else {
-                    throw new RuntimeException(ex);
-                }
-            }
+            waitImageThread();
             switch (this.renderer.getWidth()) {
                 case 100 -> {
                     this.renderer.resize(200, 150);
@@ -489,6 +536,19 @@ public class Game {
         if (e.getKeyCode() == KeyEvent.VK_U && pressed) {
             this.renderer.setSunEnabled(!this.renderer.isSunEnabled());
         }
+        if (e.getKeyCode() == KeyEvent.VK_G && pressed) {
+            this.renderer.setDeferredShadingEnabled(!this.renderer.isDeferredShadingEnabled());
+        }
+        if (e.getKeyCode() == KeyEvent.VK_Z && pressed) {
+            this.depthPrePassEnabled = !this.depthPrePassEnabled;
+        }
+        if (e.getKeyCode() == KeyEvent.VK_V && pressed) {
+            this.renderer.setVectorizationEnabled(!this.renderer.isVectorizationEnabled());
+        }
+        if (e.getKeyCode() == KeyEvent.VK_X && pressed) {
+            waitImageThread();
+            this.renderer.setSamples(this.renderer.getSamples() == 1 ? 4 : 1);
+        }
         if (e.getKeyCode() == KeyEvent.VK_C && pressed) {
             this.saveColorBuffer = true;
         }
@@ -1,1623 +1,5300 @@
-/*
- * This is free and unencumbered software released into the public domain.
- *
- * Anyone is free to copy, modify, publish, use, compile, sell, or
- * distribute this software, either in source code form or as a compiled
- * binary, for any purpose, commercial or non-commercial, and by any
- * means.
- *
- * In jurisdictions that recognize copyright laws, the author or authors
- * of this software dedicate any and all copyright interest in the
- * software to the public domain. We make this dedication for the benefit
- * of the public at large and to the detriment of our heirs and
- * successors. We intend this dedication to be an overt act of
- * relinquishment in perpetuity of all present and future rights to this
- * software under copyright law.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
- * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
- * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
- * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
- * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
- * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
- * OTHER DEALINGS IN THE SOFTWARE.
- *
- * For more information, please refer to <https://unlicense.org>
- */
-package cientistavuador.softwarerenderer.render;
-
-import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import org.joml.Matrix3f;
-import org.joml.Matrix4f;
-import org.joml.Vector3f;
-import org.joml.Vector3fc;
-import org.joml.Vector4f;
-import org.joml.Vector4fc;
-
-/**
- *
- * @author Cien
- */
-public class SoftwareRenderer {
-
-    //camera position, world position, uv, world normal, color
-    private static final int VERTEX_SIZE = 4 + 3 + 2 + 3 + 4;
-
-    private static final int CX = 0;
-    private static final int CY = 1;
-    private static final int CZ = 2;
-    private static final int CW_INV = 3;
-    private static final int CW = CW_INV;
-    private static final int X = 4;
-    private static final int Y = 5;
-    private static final int Z = 6;
-    private static final int U = 7;
-    private static final int V = 8;
-    private static final int NX = 9;
-    private static final int NY = 10;
-    private static final int NZ = 11;
-    private static final int R = 12;
-    private static final int G = 13;
-    private static final int B = 14;
-    private static final int A = 15;
-
-    //texture
-    public static interface Texture {
-
-        public int width();
-
-        public int height();
-
-        public default void sampleNearest(float x, float y, float[] result, int offset) {
-            int width = width();
-            int height = height();
-            int pX = (((int) Math.floor(Math.abs(x) * width)) % width);
-            int pY = (((int) Math.floor(Math.abs(y) * height)) % height);
-            fetch(pX, pY, result, offset);
-        }
-
-        public default void sampleBilinear(float x, float y, float[] result, int offset) {
-            int width = width();
-            int height = height();
-
-            float pX = Math.abs((x * width) - 0.5f);
-            float pY = Math.abs((y * height) - 0.5f);
-
-            int bottomLeftX = (int) Math.floor(pX);
-            int bottomLeftY = (int) Math.floor(pY);
-
-            float weightX = pX - bottomLeftX;
-            float weightY = pY - bottomLeftY;
-
-            fetch(bottomLeftX % width, bottomLeftY % height, result, offset);
-            float bottomLeftR = result[offset + 0];
-            float bottomLeftG = result[offset + 1];
-            float bottomLeftB = result[offset + 2];
-            float bottomLeftA = result[offset + 3];
-
-            int bottomRightX = (int) Math.ceil(pX);
-            int bottomRightY = (int) Math.floor(pY);
-
-            fetch(bottomRightX % width, bottomRightY % height, result, offset);
-            float bottomRightR = result[offset + 0];
-            float bottomRightG = result[offset + 1];
-            float bottomRightB = result[offset + 2];
-            float bottomRightA = result[offset + 3];
-
-            int topLeftX = (int) Math.floor(pX);
-            int topLeftY = (int) Math.ceil(pY);
-
-            fetch(topLeftX % width, topLeftY % height, result, offset);
-            float topLeftR = result[offset + 0];
-            float topLeftG = result[offset + 1];
-            float topLeftB = result[offset + 2];
-            float topLeftA = result[offset + 3];
-
-            int topRightX = (int) Math.ceil(pX);
-            int topRightY = (int) Math.ceil(pY);
-
-            fetch(topRightX % width, topRightY % height, result, offset);
-            float topRightR = result[offset + 0];
-            float topRightG = result[offset + 1];
-            float topRightB = result[offset + 2];
-            float topRightA = result[offset + 3];
-
-            result[offset + 0] = (bottomLeftR * (1f - weightX) * (1f - weightY)) + (bottomRightR * weightX * (1f - weightY)) + (topLeftR * (1f - weightX) * weightY) + (topRightR * weightX * weightY);
-            result[offset + 1] = (bottomLeftG * (1f - weightX) * (1f - weightY)) + (bottomRightG * weightX * (1f - weightY)) + (topLeftG * (1f - weightX) * weightY) + (topRightG * weightX * weightY);
-            result[offset + 2] = (bottomLeftB * (1f - weightX) * (1f - weightY)) + (bottomRightB * weightX * (1f - weightY)) + (topLeftB * (1f - weightX) * weightY) + (topRightB * weightX * weightY);
-            result[offset + 3] = (bottomLeftA * (1f - weightX) * (1f - weightY)) + (bottomRightA * weightX * (1f - weightY)) + (topLeftA * (1f - weightX) * weightY) + (topRightA * weightX * weightY);
-        }
-
-        public void fetch(int x, int y, float[] result, int offset);
-    }
-
-    //surface
-    public class Surface {
-
-        public static final int DEFAULT_WIDTH = 200;
-        public static final int DEFAULT_HEIGHT = 150;
-
-        private final int width;
-        private final int height;
-
-        private final float[] colorBuffer;
-        private final float[] depthBuffer;
-
-        private final Texture colorBufferTexture;
-        private final Texture depthBufferTexture;
-
-        public Surface(int width, int height) {
-            this.width = width;
-            this.height = height;
-            this.colorBuffer = new float[width * height * 4];
-            this.depthBuffer = new float[width * height];
-            this.colorBufferTexture = new Texture() {
-                @Override
-                public int width() {
-                    return Surface.this.width;
-                }
-
-                @Override
-                public int height() {
-                    return Surface.this.height;
-                }
-
-                @Override
-                public void fetch(int x, int y, float[] result, int offset) {
-                    result[offset + 0] = Surface.this.colorBuffer[((x + (y * width())) * 4) + 0];
-                    result[offset + 1] = Surface.this.colorBuffer[((x + (y * width())) * 4) + 1];
-                    result[offset + 2] = Surface.this.colorBuffer[((x + (y * width())) * 4) + 2];
-                    result[offset + 3] = Surface.this.colorBuffer[((x + (y * width())) * 4) + 3];
-                }
-            };
-            this.depthBufferTexture = new Texture() {
-                @Override
-                public int width() {
-                    return Surface.this.width;
-                }
-
-                @Override
-                public int height() {
-                    return Surface.this.height;
-                }
-
-                @Override
-                public void fetch(int x, int y, float[] result, int offset) {
-                    float depth = Surface.this.depthBuffer[x + (y * width())];
-                    result[offset + 0] = depth;
-                    result[offset + 1] = depth;
-                    result[offset + 2] = depth;
-                    result[offset + 3] = 1f;
-                }
-            };
-        }
-
-        public Surface() {
-            this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
-        }
-
-        public int getWidth() {
-            return width;
-        }
-
-        public int getHeight() {
-            return height;
-        }
-
-        public Texture getColorBufferTexture() {
-            return colorBufferTexture;
-        }
-
-        public Texture getDepthBufferTexture() {
-            return depthBufferTexture;
-        }
-
-        public void setColor(int x, int y, float[] rgba) {
-            this.colorBuffer[((x + (y * getWidth())) * 4) + 0] = rgba[0];
-            this.colorBuffer[((x + (y * getWidth())) * 4) + 1] = rgba[1];
-            this.colorBuffer[((x + (y * getWidth())) * 4) + 2] = rgba[2];
-            this.colorBuffer[((x + (y * getWidth())) * 4) + 2] = rgba[3];
-        }
-
-        public void setColor(int x, int y, float[] rgbaArray, int offset, int length) {
-            System.arraycopy(rgbaArray, offset, this.colorBuffer, (x + (y * getWidth())) * 4, length);
-        }
-
-        public void setDepth(int x, int y, float depth) {
-            this.depthBuffer[x + (y * getWidth())] = depth;
-        }
-
-        public void setDepth(int x, int y, float[] depthArray, int offset, int length) {
-            System.arraycopy(depthArray, offset, this.depthBuffer, x + (y * getWidth()), length);
-        }
-
-        public void getColor(int x, int y, float[] rgba) {
-            rgba[0] = this.colorBuffer[((x + (y * getWidth())) * 4) + 0];
-            rgba[1] = this.colorBuffer[((x + (y * getWidth())) * 4) + 1];
-            rgba[2] = this.colorBuffer[((x + (y * getWidth())) * 4) + 2];
-            rgba[3] = this.colorBuffer[((x + (y * getWidth())) * 4) + 3];
-        }
-
-        public void getColor(int x, int y, float[] rgbaArray, int offset, int length) {
-            System.arraycopy(this.colorBuffer, (x + (y * getWidth())) * 4, rgbaArray, offset, length);
-        }
-
-        public float getDepth(int x, int y) {
-            return this.depthBuffer[x + (y * getWidth())];
-        }
-
-        public void getDepth(int x, int y, float[] depthArray, int offset, int length) {
-            System.arraycopy(this.depthBuffer, x + (y * getWidth()), depthArray, offset, length);
-        }
-
-        public void clearColor(float r, float g, float b, float a) {
-            for (int x = 0; x < getWidth(); x++) {
-                for (int y = 0; y < getHeight(); y++) {
-                    this.colorBuffer[((x + (y * getWidth())) * 4) + 0] = r;
-                    this.colorBuffer[((x + (y * getWidth())) * 4) + 1] = g;
-                    this.colorBuffer[((x + (y * getWidth())) * 4) + 2] = b;
-                    this.colorBuffer[((x + (y * getWidth())) * 4) + 3] = a;
-                }
-            }
-        }
-
-        public void clearDepth(float depth) {
-            Arrays.fill(this.depthBuffer, depth);
-        }
-    }
-
-    //awt interop
-    public static Texture wrapImageToTexture(BufferedImage image) {
-        return new Texture() {
-            private final BufferedImage wrapped = image;
-
-            @Override
-            public int width() {
-                return this.wrapped.getWidth();
-            }
-
-            @Override
-            public int height() {
-                return this.wrapped.getHeight();
-            }
-
-            @Override
-            public void fetch(int x, int y, float[] result, int offset) {
-                int pixel = this.wrapped.getRGB(x, (height() - 1) - y);
-                result[offset + 0] = ((pixel >> 16) & 0xFF) / 255f;
-                result[offset + 1] = ((pixel >> 8) & 0xFF) / 255f;
-                result[offset + 2] = ((pixel >> 0) & 0xFF) / 255f;
-                result[offset + 3] = ((pixel >> 24) & 0xFF) / 255f;
-            }
-        };
-    }
-
-    public static Texture imageTo16BitsTexture(BufferedImage image) {
-        final int width = image.getWidth();
-        final int height = image.getHeight();
-        final int[] bufferedData = image.getRGB(0, 0, width, height, null, 0, width);
-        final short[] pixelData = new short[width * height];
-
-        for (int i = 0; i < width * height; i++) {
-            int x = i % width;
-            int y = i / width;
-            int imagePixel = bufferedData[x + (((height - 1) - y) * width)];
-            int rBits = (int) ((((imagePixel >> 16) & 0xFF) / 255f) * 15f);
-            int gBits = (int) ((((imagePixel >> 8) & 0xFF) / 255f) * 15f);
-            int bBits = (int) ((((imagePixel >> 0) & 0xFF) / 255f) * 15f);
-            int aBits = (int) ((((imagePixel >> 24) & 0xFF) / 255f) * 15f);
-            pixelData[i] = (short) ((rBits << 12) | (gBits << 8) | (bBits << 4) | (aBits << 0));
-        }
-
-        return new Texture() {
-            @Override
-            public int width() {
-                return width;
-            }
-
-            @Override
-            public int height() {
-                return height;
-            }
-
-            @Override
-            public void fetch(int x, int y, float[] result, int offset) {
-                int pixel = pixelData[x + (y * width())] & 0xFFFF;
-                float r = ((pixel >> 12) & 0x0F) / 15f;
-                float g = ((pixel >> 8) & 0x0F) / 15f;
-                float b = ((pixel >> 4) & 0x0F) / 15f;
-                float a = ((pixel >> 0) & 0x0F) / 15f;
-                result[offset + 0] = r;
-                result[offset + 1] = g;
-                result[offset + 2] = b;
-                result[offset + 3] = a;
-            }
-        };
-    }
-
-    public static Texture imageTo256ColorsTexture(BufferedImage image) {
-        final int width = image.getWidth();
-        final int height = image.getHeight();
-        final int[] bufferedData = image.getRGB(0, 0, width, height, null, 0, width);
-        final byte[] pixelData = new byte[width * height];
-
-        for (int i = 0; i < width * height; i++) {
-            int x = i % width;
-            int y = i / width;
-            int imagePixel = bufferedData[x + (((height - 1) - y) * width)];
-            float alpha = ((imagePixel >> 24) & 0xFF) / 255f;
-            int rBits = (int) ((((imagePixel >> 16) & 0xFF) / 255f) * 7f);
-            int gBits = (int) ((((imagePixel >> 8) & 0xFF) / 255f) * 7f);
-            int bBits = (int) ((((imagePixel >> 0) & 0xFF) / 255f) * 3f);
-            if (rBits == 0 && gBits == 0 && bBits == 0) {
-                rBits = 2;
-                gBits = 2;
-                bBits = 1;
-            }
-            if (alpha < 0.5f) {
-                rBits = 0;
-                gBits = 0;
-                bBits = 0;
-            }
-            pixelData[i] = (byte) ((rBits << 5) | (gBits << 2) | (bBits << 0));
-        }
-
-        return new Texture() {
-            @Override
-            public int width() {
-                return width;
-            }
-
-            @Override
-            public int height() {
-                return height;
-            }
-
-            @Override
-            public void fetch(int x, int y, float[] result, int offset) {
-                int pixel = pixelData[x + (y * width())] & 0xFF;
-                float r = ((pixel >> 5) & 0x07) / 7f;
-                float g = ((pixel >> 2) & 0x07) / 7f;
-                float b = ((pixel >> 0) & 0x03) / 3f;
-                float a = (r == 0f && g == 0f && b == 0f ? 0f : 1f);
-                result[offset + 0] = r;
-                result[offset + 1] = g;
-                result[offset + 2] = b;
-                result[offset + 3] = a;
-            }
-        };
-    }
-
-    public static Texture imageToTexture(BufferedImage image) {
-        final int width = image.getWidth();
-        final int height = image.getHeight();
-        final int[] bufferedData = image.getRGB(0, 0, width, height, null, 0, width);
-        final float[] pixelData = new float[width * height * 4];
-
-        for (int i = 0; i < width * height; i++) {
-            int x = i % width;
-            int y = i / width;
-
-            int pixel = bufferedData[x + (((height - 1) - y) * width)];
-
-            pixelData[((x + (y * width)) * 4) + 0] = ((pixel >> 16) & 0xFF) / 255f;
-            pixelData[((x + (y * width)) * 4) + 1] = ((pixel >> 8) & 0xFF) / 255f;
-            pixelData[((x + (y * width)) * 4) + 2] = ((pixel >> 0) & 0xFF) / 255f;
-            pixelData[((x + (y * width)) * 4) + 3] = ((pixel >> 24) & 0xFF) / 255f;
-        }
-
-        return new Texture() {
-            @Override
-            public int width() {
-                return width;
-            }
-
-            @Override
-            public int height() {
-                return height;
-            }
-
-            @Override
-            public void fetch(int x, int y, float[] result, int offset) {
-                System.arraycopy(pixelData, (x + (y * width)) * 4, result, offset, 4);
-            }
-        };
-    }
-
-    public static BufferedImage textureToImage(Texture t) {
-        if (t == null) {
-            throw new NullPointerException("Texture is null.");
-        }
-
-        int width = t.width();
-        int height = t.height();
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
-        float[] cache = new float[4];
-        int[] intCache = new int[4];
-        int[] data = new int[width * height];
-
-        for (int i = 0; i < width * height; i++) {
-            int x = i % width;
-            int y = i / width;
-
-            t.fetch(x, (height - y) - 1, cache, 0);
-            for (int j = 0; j < intCache.length; j++) {
-                intCache[j] = Math.min((int) (cache[j] * 255f), 255);
-            }
-            data[i] = (intCache[3] << 24) | (intCache[0] << 16) | (intCache[1] << 8) | (intCache[2] << 0);
-        }
-
-        image.setRGB(0, 0, width, height, data, 0, width);
-
-        return image;
-    }
-
-    //vertex builder
-    public static class MeshBuilder {
-
-        //local position, uv, normal, color
-        private static final int LOCAL_VERTEX_SIZE = 3 + 2 + 3 + 4;
-
-        public static final int VERTEX_SIZE = LOCAL_VERTEX_SIZE;
-
-        public static final int POS_X = 0;
-        public static final int POS_Y = 1;
-        public static final int POS_Z = 2;
-        public static final int TEX_U = 3;
-        public static final int TEX_V = 4;
-        public static final int NRM_X = 5;
-        public static final int NRM_Y = 6;
-        public static final int NRM_Z = 7;
-        public static final int CLR_R = 8;
-        public static final int CLR_G = 9;
-        public static final int CLR_B = 10;
-        public static final int CLR_A = 11;
-
-        private float[] positions = new float[64];
-        private int positionsIndex = 0;
-
-        private float[] uvs = new float[64];
-        private int uvsIndex = 0;
-
-        private float[] normals = new float[64];
-        private int normalsIndex = 0;
-
-        private float[] colors = new float[64];
-        private int colorsIndex = 0;
-
-        private float[] vertices = new float[LOCAL_VERTEX_SIZE * 32];
-        private int verticesIndex = 0;
-
-        public MeshBuilder() {
-
-        }
-
-        public int position(float x, float y, float z) {
-            if ((this.positionsIndex + 3) > this.positions.length) {
-                this.positions = Arrays.copyOf(this.positions, this.positions.length * 2);
-            }
-
-            this.positions[this.positionsIndex + 0] = x;
-            this.positions[this.positionsIndex + 1] = y;
-            this.positions[this.positionsIndex + 2] = z;
-
-            this.positionsIndex += 3;
-
-            return (this.positionsIndex / 3);
-        }
-
-        public int texture(float u, float v) {
-            if ((this.uvsIndex + 2) > this.uvs.length) {
-                this.uvs = Arrays.copyOf(this.uvs, this.uvs.length * 2);
-            }
-
-            this.uvs[this.uvsIndex + 0] = u;
-            this.uvs[this.uvsIndex + 1] = v;
-
-            this.uvsIndex += 2;
-
-            return (this.uvsIndex / 2);
-        }
-
-        public int normal(float nX, float nY, float nZ) {
-            if ((this.normalsIndex + 3) > this.normals.length) {
-                this.normals = Arrays.copyOf(this.normals, this.normals.length * 2);
-            }
-
-            this.normals[this.normalsIndex + 0] = nX;
-            this.normals[this.normalsIndex + 1] = nY;
-            this.normals[this.normalsIndex + 2] = nZ;
-
-            this.normalsIndex += 3;
-
-            return (this.normalsIndex / 3);
-        }
-
-        public int color(float r, float g, float b, float a) {
-            if ((this.colorsIndex + 4) > this.colors.length) {
-                this.colors = Arrays.copyOf(this.colors, this.colors.length * 2);
-            }
-
-            this.colors[this.colorsIndex + 0] = r;
-            this.colors[this.colorsIndex + 1] = g;
-            this.colors[this.colorsIndex + 2] = b;
-            this.colors[this.colorsIndex + 3] = a;
-
-            this.colorsIndex += 4;
-
-            return (this.colorsIndex / 4);
-        }
-
-        public void vertex(int positionIndex, int textureIndex, int normalIndex, int colorIndex) {
-            float x = 0f;
-            float y = 0f;
-            float z = 0f;
-            if (positionIndex != 0) {
-                positionIndex--;
-
-                x = this.positions[(positionIndex * 3) + 0];
-                y = this.positions[(positionIndex * 3) + 1];
-                z = this.positions[(positionIndex * 3) + 2];
-            }
-
-            float u = 0f;
-            float v = 0f;
-            if (textureIndex != 0) {
-                textureIndex--;
-
-                u = this.uvs[(textureIndex * 2) + 0];
-                v = this.uvs[(textureIndex * 2) + 1];
-            }
-
-            float nX = Float.NaN;
-            float nY = Float.NaN;
-            float nZ = Float.NaN;
-            if (normalIndex != 0) {
-                normalIndex--;
-
-                nX = this.normals[(normalIndex * 3) + 0];
-                nY = this.normals[(normalIndex * 3) + 1];
-                nZ = this.normals[(normalIndex * 3) + 2];
-            }
-
-            float r = 1f;
-            float g = 1f;
-            float b = 1f;
-            float a = 1f;
-            if (colorIndex != 0) {
-                colorIndex--;
-
-                r = this.colors[(colorIndex * 4) + 0];
-                g = this.colors[(colorIndex * 4) + 1];
-                b = this.colors[(colorIndex * 4) + 2];
-                a = this.colors[(colorIndex * 4) + 3];
-            }
-
-            if ((this.verticesIndex + LOCAL_VERTEX_SIZE) > this.vertices.length) {
-                this.vertices = Arrays.copyOf(this.vertices, (this.vertices.length * 2) + LOCAL_VERTEX_SIZE);
-            }
-
-            //local position
-            this.vertices[this.verticesIndex + POS_X] = x;
-            this.vertices[this.verticesIndex + POS_Y] = y;
-            this.vertices[this.verticesIndex + POS_Z] = z;
-
-            //uv
-            this.vertices[this.verticesIndex + TEX_U] = u;
-            this.vertices[this.verticesIndex + TEX_V] = v;
-
-            //normal
-            this.vertices[this.verticesIndex + NRM_X] = nX;
-            this.vertices[this.verticesIndex + NRM_Y] = nY;
-            this.vertices[this.verticesIndex + NRM_Z] = nZ;
-
-            //color
-            this.vertices[this.verticesIndex + CLR_R] = r;
-            this.vertices[this.verticesIndex + CLR_G] = g;
-            this.vertices[this.verticesIndex + CLR_B] = b;
-            this.vertices[this.verticesIndex + CLR_A] = a;
-
-            this.verticesIndex += LOCAL_VERTEX_SIZE;
-
-            if ((this.verticesIndex / LOCAL_VERTEX_SIZE) % 3 == 0) {
-                int v2 = this.verticesIndex - LOCAL_VERTEX_SIZE;
-                int v1 = v2 - LOCAL_VERTEX_SIZE;
-                int v0 = v1 - LOCAL_VERTEX_SIZE;
-
-                float v0nx = this.vertices[v0 + NRM_X];
-                float v0ny = this.vertices[v0 + NRM_Y];
-                float v0nz = this.vertices[v0 + NRM_Z];
-
-                float v1nx = this.vertices[v1 + NRM_X];
-                float v1ny = this.vertices[v1 + NRM_Y];
-                float v1nz = this.vertices[v1 + NRM_Z];
-
-                float v2nx = this.vertices[v2 + NRM_X];
-                float v2ny = this.vertices[v2 + NRM_Y];
-                float v2nz = this.vertices[v2 + NRM_Z];
-
-                if (flatShaded(v0nx, v0ny, v0nz) || flatShaded(v1nx, v1ny, v1nz) || flatShaded(v2nx, v2ny, v2nz)) {
-                    float v0x = this.vertices[v0 + POS_X];
-                    float v0y = this.vertices[v0 + POS_Y];
-                    float v0z = this.vertices[v0 + POS_Z];
-
-                    float v1x = this.vertices[v1 + POS_X];
-                    float v1y = this.vertices[v1 + POS_Y];
-                    float v1z = this.vertices[v1 + POS_Z];
-
-                    float v2x = this.vertices[v2 + POS_X];
-                    float v2y = this.vertices[v2 + POS_Y];
-                    float v2z = this.vertices[v2 + POS_Z];
-
-                    Vector3f A = new Vector3f();
-                    Vector3f B = new Vector3f();
-                    Vector3f N = new Vector3f();
-
-                    A.set(v1x, v1y, v1z).sub(v0x, v0y, v0z);
-                    B.set(v2x, v2y, v2z).sub(v0x, v0y, v0z);
-                    N.set(A).cross(B).normalize();
-
-                    v0nx = N.x();
-                    v0ny = N.y();
-                    v0nz = N.z();
-
-                    this.vertices[v0 + NRM_X] = v0nx;
-                    this.vertices[v0 + NRM_Y] = v0ny;
-                    this.vertices[v0 + NRM_Z] = v0nz;
-
-                    this.vertices[v1 + NRM_X] = v0nx;
-                    this.vertices[v1 + NRM_Y] = v0ny;
-                    this.vertices[v1 + NRM_Z] = v0nz;
-
-                    this.vertices[v2 + NRM_X] = v0nx;
-                    this.vertices[v2 + NRM_Y] = v0ny;
-                    this.vertices[v2 + NRM_Z] = v0nz;
-                }
-            }
-        }
-
-        private boolean flatShaded(float x, float y, float z) {
-            return Float.isNaN(x) || Float.isNaN(y) || Float.isNaN(z);
-        }
-
-        public float[] vertices() {
-            if ((this.verticesIndex / LOCAL_VERTEX_SIZE) % 3 != 0) {
-                throw new IllegalArgumentException("The stream does not contains triangles. (The number of vertices cannot be divided by 3)");
-            }
-
-            return Arrays.copyOf(this.vertices, this.verticesIndex);
-        }
-
-    }
-
-    //vertex transformer
-    private class VertexTransformer {
-
-        private static final Vector4f[] clippingEdges = new Vector4f[]{
-            new Vector4f(-1, 0, 0, 1),
-            new Vector4f(1, 0, 0, 1),
-            new Vector4f(0, -1, 0, 1),
-            new Vector4f(0, 1, 0, 1),
-            new Vector4f(0, 0, -1, 1),
-            new Vector4f(0, 0, 1, 1)
-        };
-        
-        private final float[] localVertices;
-        private final Matrix4f projectionView = new Matrix4f();
-        private final Matrix4f model = new Matrix4f();
-        private final Matrix3f normalModel = new Matrix3f();
-        private final int width;
-        private final int height;
-
-        private float[] tverts = null;
-        private float[] vertices = new float[VERTEX_SIZE * 64];
-        private int verticesIndex = 0;
-
-        public VertexTransformer(SoftwareRenderer renderer) {
-            float[] localVerts = renderer.getMesh();
-            this.localVertices = localVerts;
-            this.projectionView
-                    .set(renderer.getProjection())
-                    .mul(renderer.getView())
-                    .translate(renderer.getCameraPosition().negate(new Vector3f()));
-            this.model
-                    .set(renderer.getModel());
-            if (renderer.isBillboardingEnabled()) {
-                this.model.mul(renderer.getView().invert(new Matrix4f()));
-            }
-            this.normalModel.set(new Matrix4f(this.model).invert().transpose());
-            this.width = renderer.getWidth();
-            this.height = renderer.getHeight();
-        }
-
-        private float[] transformVertices() {
-            float[] output = new float[(this.localVertices.length / MeshBuilder.LOCAL_VERTEX_SIZE) * VERTEX_SIZE];
-            Vector4f pos = new Vector4f();
-            Vector3f normal = new Vector3f();
-            for (int v = 0; v < this.localVertices.length; v += MeshBuilder.LOCAL_VERTEX_SIZE) {
-                int vout = (v / MeshBuilder.LOCAL_VERTEX_SIZE) * VERTEX_SIZE;
-
-                pos.set(
-                        this.localVertices[v + 0],
-                        this.localVertices[v + 1],
-                        this.localVertices[v + 2],
-                        1f
-                );
-                this.model.transform(pos);
-                output[vout + X] = pos.x();
-                output[vout + Y] = pos.y();
-                output[vout + Z] = pos.z();
-
-                this.projectionView.transform(pos);
-                output[vout + CX] = pos.x();
-                output[vout + CY] = pos.y();
-                output[vout + CZ] = pos.z();
-                output[vout + CW] = pos.w();
-
-                output[vout + U] = this.localVertices[v + 3];
-                output[vout + V] = this.localVertices[v + 4];
-
-                normal.set(
-                        this.localVertices[v + 5],
-                        this.localVertices[v + 6],
-                        this.localVertices[v + 7]
-                );
-                this.normalModel.transform(normal).normalize();
-                output[vout + NX] = normal.x();
-                output[vout + NY] = normal.y();
-                output[vout + NZ] = normal.z();
-
-                output[vout + R] = this.localVertices[v + 8];
-                output[vout + G] = this.localVertices[v + 9];
-                output[vout + B] = this.localVertices[v + 10];
-                output[vout + A] = this.localVertices[v + 11];
-            }
-            return output;
-        }
-
-        public float[] transformAndClip() {
-            this.tverts = transformVertices();
-
-            this.verticesIndex = 0;
-            for (int i = 0; i < this.tverts.length; i += (VERTEX_SIZE * 3)) {
-                int v0 = i;
-                int v1 = v0 + VERTEX_SIZE;
-                int v2 = v1 + VERTEX_SIZE;
-
-                if (mustClip(v0) || mustClip(v1) || mustClip(v2)) {
-                    clip(v0, v1, v2);
-                    continue;
-                }
-
-                if (!ccw(this.tverts, v0, v1, v2)) {
-                    continue;
-                }
-
-                vertex(v0);
-                vertex(v1);
-                vertex(v2);
-            }
-
-            if ((this.verticesIndex / VERTEX_SIZE) % 3 != 0) {
-                throw new IllegalArgumentException("The stream does not contains triangles. (The number of vertices cannot be divided by 3)");
-            }
-
-            float[] resultVertices = Arrays.copyOf(this.vertices, this.verticesIndex);
-            prepareForRasterization(resultVertices);
-            return resultVertices;
-        }
-
-        private boolean ccw(float[] verts, int v0, int v1, int v2) {
-            float v0invcw = 1f / verts[v0 + CW];
-            float v1invcw = 1f / verts[v1 + CW];
-            float v2invcw = 1f / verts[v2 + CW];
-
-            float v0cxw = verts[v0 + CX] * v0invcw;
-            float v0cyw = verts[v0 + CY] * v0invcw;
-
-            float v1cxw = verts[v1 + CX] * v1invcw;
-            float v1cyw = verts[v1 + CY] * v1invcw;
-
-            float v2cxw = verts[v2 + CX] * v2invcw;
-            float v2cyw = verts[v2 + CY] * v2invcw;
-
-            float ccw = (v1cxw - v0cxw) * (v2cyw - v0cyw) - (v2cxw - v0cxw) * (v1cyw - v0cyw);
-            return ccw > 0f;
-        }
-
-        private boolean mustClip(int v) {
-            float invcw = 1f / this.tverts[v + CW];
-            return (this.tverts[v + CX] * invcw) > 1f
-                    || (this.tverts[v + CX] * invcw) < -1f
-                    || (this.tverts[v + CY] * invcw) > 1f
-                    || (this.tverts[v + CY] * invcw) < -1f
-                    || (this.tverts[v + CZ] * invcw) > 1f
-                    || (this.tverts[v + CZ] * invcw) < -1f;
-        }
-
-        private void clip(int v0, int v1, int v2) {
-            //https://read.cash/@Metalhead33/software-renderer-4-complex-shapes-z-buffers-alpha-blending-perspective-correction-cameras-c1ebfd00
-
-            int verticesIndexStore = this.verticesIndex;
-            float[] verticesStore = this.vertices;
-
-            this.verticesIndex = 0;
-            this.vertices = new float[VERTEX_SIZE * 36];
-
-            vertex(v0);
-            vertex(v1);
-            vertex(v2);
-
-            int[] inputList = new int[36];
-            int inputListIndex = 0;
-            int[] outputList = new int[36];
-            int outputListIndex = 0;
-
-            inputList[0] = 0;
-            inputList[1] = 1;
-            inputList[2] = 2;
-            inputListIndex += 3;
-
-            for (Vector4f clippingEdge : VertexTransformer.clippingEdges) {
-                if (inputListIndex < 3) {
-                    continue;
-                }
-                outputListIndex = 0;
-                int idxPrev = inputList[0];
-                //inputList, not output
-                //outputList.add(idxPrev);
-                inputList[inputListIndex] = idxPrev;
-                inputListIndex++;
-                float dpPrev = calculateDp(clippingEdge, idxPrev);
-                for (int j = 1; j < inputListIndex; ++j) {
-                    int idx = inputList[j];
-                    float dp = calculateDp(clippingEdge, idx);
-
-                    if (dpPrev >= 0) {
-                        outputList[outputListIndex] = idxPrev;
-                        outputListIndex++;
-                    }
-
-                    if (Math.signum(dp) != Math.signum(dpPrev)) {
-                        float t = dp < 0 ? dpPrev / (dpPrev - dp) : -dpPrev / (dp - dpPrev);
-                        int v = interpolateVertex(idxPrev, idx, 1f - t, t);
-                        outputList[outputListIndex] = v;
-                        outputListIndex++;
-                    }
-
-                    idxPrev = idx;
-                    dpPrev = dp;
-
-                }
-                int[] e = inputList;
-
-                inputListIndex = outputListIndex;
-                inputList = outputList;
-                outputList = e;
-            }
-
-            if (inputListIndex < 3) {
-                this.vertices = verticesStore;
-                this.verticesIndex = verticesIndexStore;
-                return;
-            }
-
-            int[] resultIndices = new int[3 + ((inputListIndex - 3) * 3)];
-            int resultIndicesIndex = 0;
-
-            resultIndices[0] = inputList[0];
-            resultIndices[1] = inputList[1];
-            resultIndices[2] = inputList[2];
-            resultIndicesIndex += 3;
-            for (int j = 3; j < inputListIndex; j++) {
-                resultIndices[resultIndicesIndex + 0] = inputList[0];
-                resultIndices[resultIndicesIndex + 1] = inputList[j - 1];
-                resultIndices[resultIndicesIndex + 2] = inputList[j];
-                resultIndicesIndex += 3;
-            }
-
-            float[] resultVertices = this.vertices;
-
-            this.vertices = verticesStore;
-            this.verticesIndex = verticesIndexStore;
-
-            processResultIndices(resultIndices, resultVertices);
-        }
-
-        private float calculateDp(Vector4fc clippingEdge, int vi) {
-            vi *= VERTEX_SIZE;
-            float cx = this.vertices[vi + CX];
-            float cy = this.vertices[vi + CY];
-            float cz = this.vertices[vi + CZ];
-            float cw = this.vertices[vi + CW];
-            return (clippingEdge.x() * cx)
-                    + (clippingEdge.y() * cy)
-                    + (clippingEdge.z() * cz)
-                    + (clippingEdge.w() * cw);
-        }
-
-        private void processResultIndices(int[] indices, float[] verts) {
-            for (int j = 0; j < (indices.length / 3); j++) {
-                int v0 = indices[(j * 3) + 0] * VERTEX_SIZE;
-                int v1 = indices[(j * 3) + 1] * VERTEX_SIZE;
-                int v2 = indices[(j * 3) + 2] * VERTEX_SIZE;
-
-                if (!ccw(verts, v0, v1, v2)) {
-                    continue;
-                }
-
-                if ((this.verticesIndex + (VERTEX_SIZE * 3)) > this.vertices.length) {
-                    this.vertices = Arrays.copyOf(this.vertices, (this.vertices.length * 2) + (VERTEX_SIZE * 3));
-                }
-
-                System.arraycopy(verts, v0, this.vertices, this.verticesIndex + (0 * VERTEX_SIZE), VERTEX_SIZE);
-                System.arraycopy(verts, v1, this.vertices, this.verticesIndex + (1 * VERTEX_SIZE), VERTEX_SIZE);
-                System.arraycopy(verts, v2, this.vertices, this.verticesIndex + (2 * VERTEX_SIZE), VERTEX_SIZE);
-
-                this.verticesIndex += (VERTEX_SIZE * 3);
-            }
-        }
-
-        private void prepareForRasterization(float[] vertices) {
-            for (int v = 0; v < vertices.length; v += VERTEX_SIZE) {
-                float cwinv = 1f / vertices[v + CW_INV];
-                for (int i = 0; i < VERTEX_SIZE; i++) {
-                    vertices[v + i] = vertices[v + i] * cwinv;
-                }
-                for (int i = CX; i <= CZ; i++) {
-                    vertices[v + i] = (vertices[v + i] + 1.0f) * 0.5f;
-                }
-                vertices[v + CX] = vertices[v + CX] * this.width;
-                vertices[v + CY] = vertices[v + CY] * this.height;
-                vertices[v + CW_INV] = cwinv;
-            }
-        }
-
-        private int interpolateVertex(int vai, int vbi, float w0, float w1) {
-            vai *= VERTEX_SIZE;
-            vbi *= VERTEX_SIZE;
-            
-            if ((this.verticesIndex + VERTEX_SIZE) > this.vertices.length) {
-                this.vertices = Arrays.copyOf(this.vertices, (this.vertices.length * 2) + VERTEX_SIZE);
-            }
-
-            float[] output = new float[VERTEX_SIZE];
-            for (int i = 0; i < VERTEX_SIZE; i++) {
-                float valueA = this.vertices[vai + i];
-                float valueB = this.vertices[vbi + i];
-                output[i] = (valueA * w0) + (valueB * w1);
-            }
-            System.arraycopy(output, 0, this.vertices, this.verticesIndex, output.length);
-
-            this.verticesIndex += VERTEX_SIZE;
-
-            return (this.verticesIndex / VERTEX_SIZE) - 1;
-        }
-
-        private void vertex(int v) {
-            if ((this.verticesIndex + VERTEX_SIZE) > this.vertices.length) {
-                this.vertices = Arrays.copyOf(this.vertices, (this.vertices.length * 2) + VERTEX_SIZE);
-            }
-
-            System.arraycopy(this.tverts, v, this.vertices, this.verticesIndex, VERTEX_SIZE);
-
-            this.verticesIndex += VERTEX_SIZE;
-        }
-
-    }
-
-    //light
-    public static interface Light {
-
-        public Vector3f getDiffuseColor();
-
-        public Vector3f getAmbientColor();
-
-        public Vector3f getPosition();
-
-        public void calculateDiffuseAmbientFactors(float x, float y, float z, float nx, float ny, float nz, float[] diffuseAmbientFactors, int offset);
-    }
-
-    //point light
-    public static class PointLight implements Light {
-
-        private final Vector3f diffuseColor = new Vector3f(0.8f, 0.8f, 0.8f);
-        private final Vector3f ambientColor = new Vector3f(0.3f, 0.3f, 0.3f);
-        private final Vector3f position = new Vector3f(0f, 0f, 0f);
-
-        public PointLight() {
-
-        }
-
-        @Override
-        public Vector3f getDiffuseColor() {
-            return this.diffuseColor;
-        }
-
-        @Override
-        public Vector3f getAmbientColor() {
-            return this.ambientColor;
-        }
-
-        @Override
-        public Vector3f getPosition() {
-            return this.position;
-        }
-
-        @Override
-        public void calculateDiffuseAmbientFactors(float x, float y, float z, float nx, float ny, float nz, float[] diffuseAmbientFactors, int offset) {
-            float lightDirX = this.position.x() - x;
-            float lightDirY = this.position.y() - y;
-            float lightDirZ = this.position.z() - z;
-            float lightDirLengthInverse = (float) (1.0 / Math.sqrt((lightDirX * lightDirX) + (lightDirY * lightDirY) + (lightDirZ * lightDirZ)));
-            lightDirX *= lightDirLengthInverse;
-            lightDirY *= lightDirLengthInverse;
-            lightDirZ *= lightDirLengthInverse;
-            diffuseAmbientFactors[offset + 0] = Math.max((lightDirX * nx) + (lightDirY * ny) + (lightDirZ * nz), 0f) * lightDirLengthInverse;
-            diffuseAmbientFactors[offset + 1] = lightDirLengthInverse;
-        }
-
-    }
-
-    //spot light
-    public static class SpotLight extends PointLight {
-
-        private static final float cutOffAmbientCosRad = (float) Math.cos(Math.toRadians(160f));
-        private static final float outerCutOffAmbientCosRad = (float) Math.cos(Math.toRadians(180f));
-
-        private final Vector3f direction = new Vector3f(0f, -1f, 0f);
-        private float cutOff = 10f;
-        private float outerCutOff = 45f;
-
-        private float cutOffCosRad = (float) Math.cos(Math.toRadians(this.cutOff));
-        private float outerCutOffCosRad = (float) Math.cos(Math.toRadians(this.outerCutOff));
-
-        public SpotLight() {
-
-        }
-
-        public Vector3f getDirection() {
-            return direction;
-        }
-
-        public float getCutOff() {
-            return cutOff;
-        }
-
-        public float getOuterCutOff() {
-            return outerCutOff;
-        }
-
-        public void setCutOff(float cutOff) {
-            this.cutOff = cutOff;
-            this.cutOffCosRad = (float) Math.cos(Math.toRadians(this.cutOff));
-        }
-
-        public void setOuterCutOff(float outerCutOff) {
-            this.outerCutOff = outerCutOff;
-            this.outerCutOffCosRad = (float) Math.cos(Math.toRadians(this.outerCutOff));
-        }
-
-        @Override
-        public void calculateDiffuseAmbientFactors(float x, float y, float z, float nx, float ny, float nz, float[] diffuseAmbientFactors, int offset) {
-            float lightDirX = getPosition().x() - x;
-            float lightDirY = getPosition().y() - y;
-            float lightDirZ = getPosition().z() - z;
-            float lightDirLengthInverse = (float) (1.0 / Math.sqrt((lightDirX * lightDirX) + (lightDirY * lightDirY) + (lightDirZ * lightDirZ)));
-            lightDirX *= lightDirLengthInverse;
-            lightDirY *= lightDirLengthInverse;
-            lightDirZ *= lightDirLengthInverse;
-
-            float theta = (lightDirX * -this.direction.x()) + (lightDirY * -this.direction.y()) + (lightDirZ * -this.direction.z());
-
-            float epsilonDiffuse = this.cutOffCosRad - this.outerCutOffCosRad;
-            float intensityDiffuse = Math.min(Math.max((theta - this.outerCutOffCosRad) / epsilonDiffuse, 0.0f), 1.0f);
-
-            float epsilonAmbient = SpotLight.cutOffAmbientCosRad - SpotLight.outerCutOffAmbientCosRad;
-            float intensityAmbient = Math.min(Math.max((theta - SpotLight.outerCutOffAmbientCosRad) / epsilonAmbient, 0.0f), 1.0f);
-
-            diffuseAmbientFactors[offset + 0] = Math.max((lightDirX * nx) + (lightDirY * ny) + (lightDirZ * nz), 0f) * lightDirLengthInverse * intensityDiffuse;
-            diffuseAmbientFactors[offset + 1] = lightDirLengthInverse * intensityAmbient;
-        }
-
-    }
-
-    //rasterizer
-    private class Rasterizer {
-
-        private final SoftwareRenderer renderer;
-        private final float[] vertices;
-
-        public Rasterizer(SoftwareRenderer renderer, float[] transformedVertices) {
-            this.renderer = renderer;
-            this.vertices = transformedVertices;
-        }
-
-        public void render() {
-            int width = this.renderer.getWidth();
-            int height = this.renderer.getHeight();
-            int numberOfTriangles = this.vertices.length / (VERTEX_SIZE * 3);
-            for (int i = 0; i < numberOfTriangles; i++) {
-                int v0 = i * (VERTEX_SIZE * 3);
-                int v1 = v0 + VERTEX_SIZE;
-                int v2 = v1 + VERTEX_SIZE;
-
-                float v0cx = this.vertices[v0 + CX];
-                float v0cy = this.vertices[v0 + CY];
-
-                float v1cx = this.vertices[v1 + CX];
-                float v1cy = this.vertices[v1 + CY];
-
-                float v2cx = this.vertices[v2 + CX];
-                float v2cy = this.vertices[v2 + CY];
-
-                float inverse = 1f / ((v1cy - v2cy) * (v0cx - v2cx) + (v2cx - v1cx) * (v0cy - v2cy));
-
-                float maxX = Math.max(Math.max(v0cx, v1cx), v2cx);
-                float maxY = Math.max(Math.max(v0cy, v1cy), v2cy);
-
-                float minX = Math.min(Math.min(v0cx, v1cx), v2cx);
-                float minY = Math.min(Math.min(v0cy, v1cy), v2cy);
-
-                int maxXP = clamp(Math.round(maxX), 0, width);
-                int maxYP = clamp(Math.round(maxY), 0, height);
-                int minXP = clamp(Math.round(minX), 0, width - 1);
-                int minYP = clamp(Math.round(minY), 0, height - 1);
-
-                boolean multithreadActivated = (maxXP - minXP) >= 32 && this.renderer.isMultithreadEnabled();
-
-                Future<?>[] tasks = new Future<?>[maxYP - minYP];
-                for (int y = minYP; y < maxYP; y++) {
-                    if (multithreadActivated) {
-                        int finalY = y;
-                        tasks[y - minYP] = CompletableFuture.runAsync(() -> {
-                            renderLine(inverse, finalY, minXP, maxXP, v0, v1, v2);
-                        });
-                    } else {
-                        renderLine(inverse, y, minXP, maxXP, v0, v1, v2);
-                    }
-                }
-                if (multithreadActivated) {
-                    try {
-                        for (Future<?> task : tasks) {
-                            task.get();
-                        }
-                    } catch (InterruptedException | ExecutionException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                }
-            }
-        }
-
-        private int clamp(int v, int min, int max) {
-            return Math.max(Math.min(v, max), min);
-        }
-
-        private void renderLine(float inverse, int y, int minX, int maxX, int v0, int v1, int v2) {
-            float[] surfaceDepth = new float[maxX - minX];
-            this.renderer.getSurface().getDepth(minX, y, surfaceDepth, 0, surfaceDepth.length);
-            float[] surfaceColor = new float[(maxX - minX) * 4];
-            this.renderer.getSurface().getColor(minX, y, surfaceColor, 0, surfaceColor.length);
-
-            float[] textureColor = new float[4];
-            float[] diffuseAmbientFactors = new float[2];
-            for (int x = minX; x < maxX; x++) {
-                int pixelIndex = x - minX;
-
-                float xPos = x + 0.5f;
-                float yPos = y + 0.5f;
-
-                float wv0 = ((this.vertices[v1 + CY] - this.vertices[v2 + CY]) * (xPos - this.vertices[v2 + CX]) + (this.vertices[v2 + CX] - this.vertices[v1 + CX]) * (yPos - this.vertices[v2 + CY])) * inverse;
-                float wv1 = ((this.vertices[v2 + CY] - this.vertices[v0 + CY]) * (xPos - this.vertices[v2 + CX]) + (this.vertices[v0 + CX] - this.vertices[v2 + CX]) * (yPos - this.vertices[v2 + CY])) * inverse;
-                float wv2 = 1 - wv0 - wv1;
-                if (wv0 < 0f || wv1 < 0f || wv2 < 0f) {
-                    continue;
-                }
-
-                float invw = (wv0 * this.vertices[v0 + CW_INV]) + (wv1 * this.vertices[v1 + CW_INV]) + (wv2 * this.vertices[v2 + CW_INV]);
-                float w = 1f / invw;
-
-                float depth = (wv0 * this.vertices[v0 + CZ]) + (wv1 * this.vertices[v1 + CZ]) + (wv2 * this.vertices[v2 + CZ]);
-                float currentDepth = surfaceDepth[pixelIndex];
-                if (depth > currentDepth) {
-                    surfaceDepth[pixelIndex] = currentDepth;
-                    continue;
-                }
-                surfaceDepth[pixelIndex] = depth;
-
-                if (this.renderer.isDepthOnlyEnabled()) {
-                    continue;
-                }
-
-                float u = ((wv0 * this.vertices[v0 + U]) + (wv1 * this.vertices[v1 + U]) + (wv2 * this.vertices[v2 + U])) * w;
-                float v = ((wv0 * this.vertices[v0 + V]) + (wv1 * this.vertices[v1 + V]) + (wv2 * this.vertices[v2 + V])) * w;
-
-                Vector4fc color = this.renderer.getColor();
-                float cr = color.x();
-                float cg = color.y();
-                float cb = color.z();
-                float ca = color.w();
-
-                cr *= ((wv0 * this.vertices[v0 + R]) + (wv1 * this.vertices[v1 + R]) + (wv2 * this.vertices[v2 + R])) * w;
-                cg *= ((wv0 * this.vertices[v0 + G]) + (wv1 * this.vertices[v1 + G]) + (wv2 * this.vertices[v2 + G])) * w;
-                cb *= ((wv0 * this.vertices[v0 + B]) + (wv1 * this.vertices[v1 + B]) + (wv2 * this.vertices[v2 + B])) * w;
-                ca *= ((wv0 * this.vertices[v0 + A]) + (wv1 * this.vertices[v1 + A]) + (wv2 * this.vertices[v2 + A])) * w;
-
-                Texture texture = this.renderer.getTexture();
-                if (texture != null) {
-                    if (this.renderer.isBilinearFilteringEnabled()) {
-                        texture.sampleBilinear(u, v, textureColor, 0);
-                    } else {
-                        texture.sampleNearest(u, v, textureColor, 0);
-                    }
-
-                    cr *= textureColor[0];
-                    cg *= textureColor[1];
-                    cb *= textureColor[2];
-                    ca *= textureColor[3];
-                }
-
-                List<Light> lights = this.renderer.getLights();
-                if (this.renderer.isLightingEnabled() && (!lights.isEmpty() || this.renderer.isSunEnabled())) {
-                    float nx = ((wv0 * this.vertices[v0 + NX]) + (wv1 * this.vertices[v1 + NX]) + (wv2 * this.vertices[v2 + NX])) * w;
-                    float ny = ((wv0 * this.vertices[v0 + NY]) + (wv1 * this.vertices[v1 + NY]) + (wv2 * this.vertices[v2 + NY])) * w;
-                    float nz = ((wv0 * this.vertices[v0 + NZ]) + (wv1 * this.vertices[v1 + NZ]) + (wv2 * this.vertices[v2 + NZ])) * w;
-                    float lengthinv = (float) (1.0 / Math.sqrt((nx * nx) + (ny * ny) + (nz * nz)));
-                    nx *= lengthinv;
-                    ny *= lengthinv;
-                    nz *= lengthinv;
-
-                    float r = 0f;
-                    float g = 0f;
-                    float b = 0f;
-
-                    if (this.renderer.isSunEnabled()) {
-                        Vector3fc lightAmbient = this.renderer.getSunAmbient();
-                        r += lightAmbient.x() * cr;
-                        g += lightAmbient.y() * cg;
-                        b += lightAmbient.z() * cb;
-
-                        Vector3fc lightDirection = this.renderer.getSunDirection();
-                        float diffuse = Math.max((nx * -lightDirection.x()) + (ny * -lightDirection.y()) + (nz * -lightDirection.z()), 0f);
-
-                        Vector3fc lightDiffuse = this.renderer.getSunDiffuse();
-                        r += lightDiffuse.x() * diffuse * cr;
-                        g += lightDiffuse.y() * diffuse * cg;
-                        b += lightDiffuse.z() * diffuse * cb;
-                    }
-
-                    if (!lights.isEmpty()) {
-                        float worldx = ((wv0 * this.vertices[v0 + X]) + (wv1 * this.vertices[v1 + X]) + (wv2 * this.vertices[v2 + X])) * w;
-                        float worldy = ((wv0 * this.vertices[v0 + Y]) + (wv1 * this.vertices[v1 + Y]) + (wv2 * this.vertices[v2 + Y])) * w;
-                        float worldz = ((wv0 * this.vertices[v0 + Z]) + (wv1 * this.vertices[v1 + Z]) + (wv2 * this.vertices[v2 + Z])) * w;
-
-                        for (Light light : lights) {
-                            if (light != null) {
-                                light.calculateDiffuseAmbientFactors(worldx, worldy, worldz, nx, ny, nz, diffuseAmbientFactors, 0);
-
-                                r += diffuseAmbientFactors[0] * light.getDiffuseColor().x() * cr;
-                                g += diffuseAmbientFactors[0] * light.getDiffuseColor().y() * cg;
-                                b += diffuseAmbientFactors[0] * light.getDiffuseColor().z() * cb;
-
-                                r += diffuseAmbientFactors[1] * light.getAmbientColor().x() * cr;
-                                g += diffuseAmbientFactors[1] * light.getAmbientColor().y() * cg;
-                                b += diffuseAmbientFactors[1] * light.getAmbientColor().z() * cb;
-                            }
-                        }
-                    }
-
-                    cr = r;
-                    cg = g;
-                    cb = b;
-                }
-
-                float outR = 0.0f, outG = 0.0f, outB = 0.0f, outA;
-                calculateAlpha:
-                {
-                    float srcR = cr, srcG = cg, srcB = cb, srcA = ca;
-                    float dstA = surfaceColor[(pixelIndex * 4) + 3];
-                    if (dstA == 1f) {
-                        float dstR = surfaceColor[(pixelIndex * 4) + 0];
-                        float dstG = surfaceColor[(pixelIndex * 4) + 1];
-                        float dstB = surfaceColor[(pixelIndex * 4) + 2];
-                        outR = (srcR * srcA) + (dstR * (1f - srcA));
-                        outG = (srcG * srcA) + (dstG * (1f - srcA));
-                        outB = (srcB * srcA) + (dstB * (1f - srcA));
-                        outA = 1f;
-                        break calculateAlpha;
-                    }
-                    outA = srcA + dstA * (1f - srcA);
-                    if (outA == 0f) {
-                        break calculateAlpha;
-                    }
-                    float dstR = surfaceColor[(pixelIndex * 4) + 0];
-                    float dstG = surfaceColor[(pixelIndex * 4) + 1];
-                    float dstB = surfaceColor[(pixelIndex * 4) + 2];
-                    float invOutA = 1f / outA;
-                    outR = (srcR * srcA + dstR * dstA * (1f - srcA)) * invOutA;
-                    outG = (srcG * srcA + dstG * dstA * (1f - srcA)) * invOutA;
-                    outB = (srcB * srcA + dstB * dstA * (1f - srcA)) * invOutA;
-                }
-                surfaceColor[(pixelIndex * 4) + 0] = outR;
-                surfaceColor[(pixelIndex * 4) + 1] = outG;
-                surfaceColor[(pixelIndex * 4) + 2] = outB;
-                surfaceColor[(pixelIndex * 4) + 3] = outA;
-            }
-
-            this.renderer.getSurface().setDepth(minX, y, surfaceDepth, 0, surfaceDepth.length);
-            this.renderer.getSurface().setColor(minX, y, surfaceColor, 0, surfaceColor.length);
-        }
-
-    }
-
-    //surface
-    private Surface frontSurface;
-    private Surface backSurface;
-
-    //vertex builder
-    private MeshBuilder builder = null;
-
-    //surface state
-    private final Vector4f clearColor = new Vector4f(0.2f, 0.4f, 0.6f, 1f);
-    private float clearDepth = 1f;
-
-    //rasterizer/processor state
-    private boolean depthOnlyEnabled = false;
-    private boolean bilinearFilteringEnabled = false;
-    private boolean multithreadEnabled = true;
-    private boolean billboardingEnabled = false;
-    private boolean lightingEnabled = true;
-    private boolean sunEnabled = true;
-
-    //sun state
-    private final Vector3f sunDirection = new Vector3f(-1f, -1f, -1f).normalize();
-    private final Vector3f sunDiffuse = new Vector3f(0.8f, 0.75f, 0.70f);
-    private final Vector3f sunAmbient = new Vector3f(0.3f, 0.3f, 0.3f);
-
-    //lights state
-    private final List<Light> lights = new ArrayList<>();
-
-    //camera state
-    private final Matrix4f projection = new Matrix4f();
-    private final Matrix4f view = new Matrix4f();
-    private final Vector3f cameraPosition = new Vector3f();
-
-    //object state
-    private float[] vertices = null;
-    private final Matrix4f model = new Matrix4f();
-    private Texture texture = null;
-    private final Vector4f color = new Vector4f(1f, 1f, 1f, 1f);
-
-    public SoftwareRenderer(int width, int height) {
-        this.frontSurface = new Surface(width, height);
-        this.backSurface = new Surface(width, height);
-    }
-
-    public SoftwareRenderer() {
-        this(Surface.DEFAULT_WIDTH, Surface.DEFAULT_HEIGHT);
-    }
-
-    //surface
-    public Surface getSurface() {
-        return this.frontSurface;
-    }
-
-    public Surface getFrontSurface() {
-        return frontSurface;
-    }
-
-    public Surface getBackSurface() {
-        return backSurface;
-    }
-
-    public float getClearDepth() {
-        return clearDepth;
-    }
-
-    public void setClearDepth(float clearDepth) {
-        this.clearDepth = clearDepth;
-    }
-
-    public Vector4f getClearColor() {
-        return clearColor;
-    }
-
-    public void clearBuffers() {
-        this.frontSurface.clearDepth(this.clearDepth);
-        this.frontSurface.clearColor(this.clearColor.x(), this.clearColor.y(), this.clearColor.z(), this.clearColor.w());
-    }
-
-    public void resize(int width, int height) {
-        this.frontSurface = new Surface(width, height);
-        this.backSurface = new Surface(width, height);
-    }
-
-    public int getWidth() {
-        return this.frontSurface.getWidth();
-    }
-
-    public int getHeight() {
-        return this.frontSurface.getHeight();
-    }
-
-    public Texture colorBuffer() {
-        return this.frontSurface.getColorBufferTexture();
-    }
-
-    public Texture depthBuffer() {
-        return this.frontSurface.getDepthBufferTexture();
-    }
-
-    public BufferedImage colorBufferToImage() {
-        return SoftwareRenderer.textureToImage(this.colorBuffer());
-    }
-
-    public BufferedImage depthBufferToImage() {
-        return SoftwareRenderer.textureToImage(this.depthBuffer());
-    }
-
-    public void flipSurfaces() {
-        Surface front = this.frontSurface;
-        Surface back = this.backSurface;
-        this.frontSurface = back;
-        this.backSurface = front;
-    }
-
-    //mesh builder
-    public void beginMesh() {
-        this.builder = new MeshBuilder();
-    }
-
-    public int position(float x, float y, float z) {
-        return this.builder.position(x, y, z);
-    }
-
-    public int texture(float u, float v) {
-        return this.builder.texture(u, v);
-    }
-
-    public int normal(float nX, float nY, float nZ) {
-        return this.builder.normal(nX, nY, nZ);
-    }
-
-    public int color(float r, float g, float b, float a) {
-        return this.builder.color(r, g, b, a);
-    }
-
-    public void vertex(int positionIndex, int textureIndex, int normalIndex, int colorIndex) {
-        this.builder.vertex(positionIndex, textureIndex, normalIndex, colorIndex);
-    }
-
-    public float[] finishMesh() {
-        MeshBuilder e = this.builder;
-        this.builder = null;
-        return e.vertices();
-    }
-
-    public void finishMeshAndSet() {
-        this.setMesh(this.finishMesh());
-    }
-
-    //vertex processor state
-    public float[] getMesh() {
-        return vertices;
-    }
-
-    public void setMesh(float[] vertices) {
-        this.vertices = vertices;
-    }
-
-    public Matrix4f getProjection() {
-        return projection;
-    }
-
-    public Matrix4f getView() {
-        return view;
-    }
-
-    public Vector3f getCameraPosition() {
-        return cameraPosition;
-    }
-
-    public Matrix4f getModel() {
-        return model;
-    }
-
-    public boolean isBillboardingEnabled() {
-        return billboardingEnabled;
-    }
-
-    public void setBillboardingEnabled(boolean billboardingEnabled) {
-        this.billboardingEnabled = billboardingEnabled;
-    }
-
-    //rasterizer
-    public void setTexture(Texture texture) {
-        this.texture = texture;
-    }
-
-    public Texture getTexture() {
-        return texture;
-    }
-
-    public Vector3f getSunDirection() {
-        return sunDirection;
-    }
-
-    public Vector3f getSunDiffuse() {
-        return sunDiffuse;
-    }
-
-    public Vector3f getSunAmbient() {
-        return sunAmbient;
-    }
-
-    public boolean isDepthOnlyEnabled() {
-        return depthOnlyEnabled;
-    }
-
-    public void setDepthOnlyEnabled(boolean depthOnlyEnabled) {
-        this.depthOnlyEnabled = depthOnlyEnabled;
-    }
-
-    public boolean isBilinearFilteringEnabled() {
-        return bilinearFilteringEnabled;
-    }
-
-    public void setBilinearFilteringEnabled(boolean bilinearFilteringEnabled) {
-        this.bilinearFilteringEnabled = bilinearFilteringEnabled;
-    }
-
-    public boolean isMultithreadEnabled() {
-        return multithreadEnabled;
-    }
-
-    public void setMultithreadEnabled(boolean multithreadEnabled) {
-        if (this.multithreadEnabled && !multithreadEnabled) {
-
-        }
-        this.multithreadEnabled = multithreadEnabled;
-    }
-
-    public List<Light> getLights() {
-        return lights;
-    }
-
-    public Vector4f getColor() {
-        return color;
-    }
-
-    public boolean isLightingEnabled() {
-        return lightingEnabled;
-    }
-
-    public void setLightingEnabled(boolean lightingEnabled) {
-        this.lightingEnabled = lightingEnabled;
-    }
-
-    public boolean isSunEnabled() {
-        return sunEnabled;
-    }
-
-    public void setSunEnabled(boolean sunEnabled) {
-        this.sunEnabled = sunEnabled;
-    }
-
-    //render
-    public int render() {
-        if (this.vertices == null || this.vertices.length == 0) {
-            return 0;
-        }
-        float[] transformed = new VertexTransformer(this).transformAndClip();
-        new Rasterizer(this, transformed).render();
-
-        return (transformed.length / VERTEX_SIZE);
-    }
-}
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.softwarerenderer.render;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.joml.Vector4f;
+import org.joml.Vector4fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class SoftwareRenderer {
+
+    //camera position, world position, uv, world normal, color
+    private static final int VERTEX_SIZE = 4 + 3 + 2 + 3 + 4;
+
+    private static final int CX = 0;
+    private static final int CY = 1;
+    private static final int CZ = 2;
+    private static final int CW_INV = 3;
+    private static final int CW = CW_INV;
+    private static final int X = 4;
+    private static final int Y = 5;
+    private static final int Z = 6;
+    private static final int U = 7;
+    private static final int V = 8;
+    private static final int NX = 9;
+    private static final int NY = 10;
+    private static final int NZ = 11;
+    private static final int R = 12;
+    private static final int G = 13;
+    private static final int B = 14;
+    private static final int A = 15;
+
+    //rasterizer tiles and blocks, also the levels of the hierarchical z
+    private static final int TILE_SIZE = 64;
+    private static final int BLOCK_SIZE = 8;
+
+    //vertices are snapped to a grid of 1/16 of a pixel for the edge functions
+    private static final int SUBPIXEL_BITS = 4;
+    private static final int SUBPIXEL_ONE = 1 << SUBPIXEL_BITS;
+    private static final int SUBPIXEL_HALF = SUBPIXEL_ONE / 2;
+
+    //multisample positions (x, y) in sub-pixel units from the pixel center, the usual 2x and 4x rotated grid patterns
+    private static final int[] SAMPLE_PATTERN_1X = {0, 0};
+    private static final int[] SAMPLE_PATTERN_2X = {4, 4, -4, -4};
+    private static final int[] SAMPLE_PATTERN_4X = {-2, -6, 6, -2, -6, 2, 2, 6};
+
+    //vectorized spans need the incubating vector api
+    private static final boolean VECTOR_API_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    //texture
+    public static interface Texture {
+
+        public int width();
+
+        public int height();
+
+        public default void sampleNearest(float x, float y, float[] result, int offset) {
+            int width = width();
+            int height = height();
+            int pX = (((int) Math.floor(Math.abs(x) * width)) % width);
+            int pY = (((int) Math.floor(Math.abs(y) * height)) % height);
+            fetch(pX, pY, result, offset);
+        }
+
+        public default void sampleBilinear(float x, float y, float[] result, int offset) {
+            int width = width();
+            int height = height();
+
+            float pX = Math.abs((x * width) - 0.5f);
+            float pY = Math.abs((y * height) - 0.5f);
+
+            int bottomLeftX = (int) Math.floor(pX);
+            int bottomLeftY = (int) Math.floor(pY);
+
+            float weightX = pX - bottomLeftX;
+            float weightY = pY - bottomLeftY;
+
+            fetch(bottomLeftX % width, bottomLeftY % height, result, offset);
+            float bottomLeftR = result[offset + 0];
+            float bottomLeftG = result[offset + 1];
+            float bottomLeftB = result[offset + 2];
+            float bottomLeftA = result[offset + 3];
+
+            int bottomRightX = (int) Math.ceil(pX);
+            int bottomRightY = (int) Math.floor(pY);
+
+            fetch(bottomRightX % width, bottomRightY % height, result, offset);
+            float bottomRightR = result[offset + 0];
+            float bottomRightG = result[offset + 1];
+            float bottomRightB = result[offset + 2];
+            float bottomRightA = result[offset + 3];
+
+            int topLeftX = (int) Math.floor(pX);
+            int topLeftY = (int) Math.ceil(pY);
+
+            fetch(topLeftX % width, topLeftY % height, result, offset);
+            float topLeftR = result[offset + 0];
+            float topLeftG = result[offset + 1];
+            float topLeftB = result[offset + 2];
+            float topLeftA = result[offset + 3];
+
+            int topRightX = (int) Math.ceil(pX);
+            int topRightY = (int) Math.ceil(pY);
+
+            fetch(topRightX % width, topRightY % height, result, offset);
+            float topRightR = result[offset + 0];
+            float topRightG = result[offset + 1];
+            float topRightB = result[offset + 2];
+            float topRightA = result[offset + 3];
+
+            result[offset + 0] = (bottomLeftR * (1f - weightX) * (1f - weightY)) + (bottomRightR * weightX * (1f - weightY)) + (topLeftR * (1f - weightX) * weightY) + (topRightR * weightX * weightY);
+            result[offset + 1] = (bottomLeftG * (1f - weightX) * (1f - weightY)) + (bottomRightG * weightX * (1f - weightY)) + (topLeftG * (1f - weightX) * weightY) + (topRightG * weightX * weightY);
+            result[offset + 2] = (bottomLeftB * (1f - weightX) * (1f - weightY)) + (bottomRightB * weightX * (1f - weightY)) + (topLeftB * (1f - weightX) * weightY) + (topRightB * weightX * weightY);
+            result[offset + 3] = (bottomLeftA * (1f - weightX) * (1f - weightY)) + (bottomRightA * weightX * (1f - weightY)) + (topLeftA * (1f - weightX) * weightY) + (topRightA * weightX * weightY);
+        }
+
+        public void fetch(int x, int y, float[] result, int offset);
+    }
+
+    //depth test
+    public static enum DepthFunction {
+        NEVER, LESS, EQUAL, LESS_EQUAL, GREATER, NOT_EQUAL, GREATER_EQUAL, ALWAYS;
+
+        public boolean test(float depth, float currentDepth) {
+            switch (this) {
+                case LESS:
+                    return depth < currentDepth;
+                case EQUAL:
+                    return depth == currentDepth;
+                case LESS_EQUAL:
+                    return depth <= currentDepth;
+                case GREATER:
+                    return depth > currentDepth;
+                case NOT_EQUAL:
+                    return depth != currentDepth;
+                case GREATER_EQUAL:
+                    return depth >= currentDepth;
+                case ALWAYS:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    //blending, the color buffer keeps straight (not premultiplied) colors
+    public static enum BlendMode {
+        //writes the source color, the destination is never read
+        OPAQUE,
+        //source over destination
+        ALPHA,
+        //source over destination, the source color is already multiplied by its alpha
+        PREMULTIPLIED,
+        //source multiplied by its alpha added to the destination
+        ADDITIVE,
+        //weighted blended order independent transparency, accumulated in any order
+        //without writing depth and composited over the surface by compositeTransparency()
+        ORDER_INDEPENDENT
+    }
+
+    //pass of the depth pre-pass the renderer is in
+    private static enum PrePass {
+        NONE, DEPTH, SHADING
+    }
+
+    //surface
+    public class Surface {
+
+        public static final int DEFAULT_WIDTH = 200;
+        public static final int DEFAULT_HEIGHT = 150;
+
+        private final int width;
+        private final int height;
+
+        private final float[] colorBuffer;
+        private final float[] depthBuffer;
+
+        //multisampling, the draws write one color and depth plane per sample and the planes are
+        //resolved into the buffers above, with a single sample the planes are the buffers themselves
+        private final int samples;
+        private final float[][] sampleColorBuffers;
+        private final float[][] sampleDepthBuffers;
+
+        //hierarchical z, max depth of each 8x8 block and each 64x64 tile
+        private final int blocksX;
+        private final int blocksY;
+        private final int tilesX;
+        private final int tilesY;
+        private final float[] blockMaxDepth;
+        private final float[] tileMaxDepth;
+
+        //deferred shading g-buffer (albedo is the color buffer), allocated on first use,
+        //pixels with a NaN normal are not lit by the lighting pass
+        private float[] normalBuffer = null;
+        private float[] positionBuffer = null;
+
+        //with multisampling, the samples of each pixel written by deferred draws (one bit per sample)
+        private byte[] deferredSamples = null;
+
+        //order independent transparency, weighted color and weight sum (rgba) and
+        //the product of (1 - alpha) of each pixel, allocated on first use
+        private float[] accumulationBuffer = null;
+        private float[] revealageBuffer = null;
+
+        private final Texture colorBufferTexture;
+        private final Texture depthBufferTexture;
+
+        public Surface(int width, int height, int samples) {
+            if (samples != 1 && samples != 2 && samples != 4) {
+                throw new IllegalArgumentException("Invalid number of samples " + samples + " must be 1, 2 or 4");
+            }
+            this.width = width;
+            this.height = height;
+            this.colorBuffer = new float[width * height * 4];
+            this.depthBuffer = new float[width * height];
+            this.samples = samples;
+            this.sampleColorBuffers = new float[samples][];
+            this.sampleDepthBuffers = new float[samples][];
+            if (samples == 1) {
+                this.sampleColorBuffers[0] = this.colorBuffer;
+                this.sampleDepthBuffers[0] = this.depthBuffer;
+            } else {
+                for (int i = 0; i < samples; i++) {
+                    this.sampleColorBuffers[i] = new float[width * height * 4];
+                    this.sampleDepthBuffers[i] = new float[width * height];
+                }
+            }
+            this.blocksX = (width + (BLOCK_SIZE - 1)) / BLOCK_SIZE;
+            this.blocksY = (height + (BLOCK_SIZE - 1)) / BLOCK_SIZE;
+            this.tilesX = (width + (TILE_SIZE - 1)) / TILE_SIZE;
+            this.tilesY = (height + (TILE_SIZE - 1)) / TILE_SIZE;
+            this.blockMaxDepth = new float[this.blocksX * this.blocksY];
+            this.tileMaxDepth = new float[this.tilesX * this.tilesY];
+            this.colorBufferTexture = new Texture() {
+                @Override
+                public int width() {
+                    return Surface.this.width;
+                }
+
+                @Override
+                public int height() {
+                    return Surface.this.height;
+                }
+
+                @Override
+                public void fetch(int x, int y, float[] result, int offset) {
+                    result[offset + 0] = Surface.this.colorBuffer[((x + (y * width())) * 4) + 0];
+                    result[offset + 1] = Surface.this.colorBuffer[((x + (y * width())) * 4) + 1];
+                    result[offset + 2] = Surface.this.colorBuffer[((x + (y * width())) * 4) + 2];
+                    result[offset + 3] = Surface.this.colorBuffer[((x + (y * width())) * 4) + 3];
+                }
+            };
+            this.depthBufferTexture = new Texture() {
+                @Override
+                public int width() {
+                    return Surface.this.width;
+                }
+
+                @Override
+                public int height() {
+                    return Surface.this.height;
+                }
+
+                @Override
+                public void fetch(int x, int y, float[] result, int offset) {
+                    float depth = Surface.this.depthBuffer[x + (y * width())];
+                    result[offset + 0] = depth;
+                    result[offset + 1] = depth;
+                    result[offset + 2] = depth;
+                    result[offset + 3] = 1f;
+                }
+            };
+        }
+
+        public Surface(int width, int height) {
+            this(width, height, 1);
+        }
+
+        public Surface() {
+            this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public Texture getColorBufferTexture() {
+            return colorBufferTexture;
+        }
+
+        public Texture getDepthBufferTexture() {
+            return depthBufferTexture;
+        }
+
+        public void setColor(int x, int y, float[] rgba) {
+            this.colorBuffer[((x + (y * getWidth())) * 4) + 0] = rgba[0];
+            this.colorBuffer[((x + (y * getWidth())) * 4) + 1] = rgba[1];
+            this.colorBuffer[((x + (y * getWidth())) * 4) + 2] = rgba[2];
+            this.colorBuffer[((x + (y * getWidth())) * 4) + 2] = rgba[3];
+        }
+
+        public void setColor(int x, int y, float[] rgbaArray, int offset, int length) {
+            System.arraycopy(rgbaArray, offset, this.colorBuffer, (x + (y * getWidth())) * 4, length);
+        }
+
+        //with multisampling every sample of the pixel is written
+        public void setDepth(int x, int y, float depth) {
+            this.depthBuffer[x + (y * getWidth())] = depth;
+            if (this.samples != 1) {
+                for (float[] sampleDepth : this.sampleDepthBuffers) {
+                    sampleDepth[x + (y * getWidth())] = depth;
+                }
+            }
+            raiseMaxDepth(x, y, depth);
+        }
+
+        public void setDepth(int x, int y, float[] depthArray, int offset, int length) {
+            System.arraycopy(depthArray, offset, this.depthBuffer, x + (y * getWidth()), length);
+            if (this.samples != 1) {
+                for (float[] sampleDepth : this.sampleDepthBuffers) {
+                    System.arraycopy(depthArray, offset, sampleDepth, x + (y * getWidth()), length);
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                int index = x + (y * getWidth()) + i;
+                raiseMaxDepth(index % getWidth(), index / getWidth(), depthArray[offset + i]);
+            }
+        }
+
+        private void raiseMaxDepth(int x, int y, float depth) {
+            int block = (x / BLOCK_SIZE) + ((y / BLOCK_SIZE) * this.blocksX);
+            int tile = (x / TILE_SIZE) + ((y / TILE_SIZE) * this.tilesX);
+            this.blockMaxDepth[block] = Math.max(this.blockMaxDepth[block], depth);
+            this.tileMaxDepth[tile] = Math.max(this.tileMaxDepth[tile], depth);
+        }
+
+        private void updateTileMaxDepth(int tile) {
+            int minBlockX = (tile % this.tilesX) * (TILE_SIZE / BLOCK_SIZE);
+            int minBlockY = (tile / this.tilesX) * (TILE_SIZE / BLOCK_SIZE);
+            int maxBlockX = Math.min(minBlockX + (TILE_SIZE / BLOCK_SIZE), this.blocksX);
+            int maxBlockY = Math.min(minBlockY + (TILE_SIZE / BLOCK_SIZE), this.blocksY);
+
+            float max = Float.NEGATIVE_INFINITY;
+            for (int blockY = minBlockY; blockY < maxBlockY; blockY++) {
+                for (int blockX = minBlockX; blockX < maxBlockX; blockX++) {
+                    max = Math.max(max, this.blockMaxDepth[blockX + (blockY * this.blocksX)]);
+                }
+            }
+            this.tileMaxDepth[tile] = max;
+        }
+
+        public void getColor(int x, int y, float[] rgba) {
+            rgba[0] = this.colorBuffer[((x + (y * getWidth())) * 4) + 0];
+            rgba[1] = this.colorBuffer[((x + (y * getWidth())) * 4) + 1];
+            rgba[2] = this.colorBuffer[((x + (y * getWidth())) * 4) + 2];
+            rgba[3] = this.colorBuffer[((x + (y * getWidth())) * 4) + 3];
+        }
+
+        public void getColor(int x, int y, float[] rgbaArray, int offset, int length) {
+            System.arraycopy(this.colorBuffer, (x + (y * getWidth())) * 4, rgbaArray, offset, length);
+        }
+
+        //with multisampling the resolved depth (the nearest sample), updated by resolve() and setDepth
+        public float getDepth(int x, int y) {
+            return this.depthBuffer[x + (y * getWidth())];
+        }
+
+        public void getDepth(int x, int y, float[] depthArray, int offset, int length) {
+            System.arraycopy(this.depthBuffer, x + (y * getWidth()), depthArray, offset, length);
+        }
+
+        public void clearColor(float r, float g, float b, float a) {
+            for (int x = 0; x < getWidth(); x++) {
+                for (int y = 0; y < getHeight(); y++) {
+                    this.colorBuffer[((x + (y * getWidth())) * 4) + 0] = r;
+                    this.colorBuffer[((x + (y * getWidth())) * 4) + 1] = g;
+                    this.colorBuffer[((x + (y * getWidth())) * 4) + 2] = b;
+                    this.colorBuffer[((x + (y * getWidth())) * 4) + 3] = a;
+                }
+            }
+            if (this.samples != 1) {
+                for (float[] sampleColor : this.sampleColorBuffers) {
+                    System.arraycopy(this.colorBuffer, 0, sampleColor, 0, sampleColor.length);
+                }
+            }
+        }
+
+        public void clearDepth(float depth) {
+            Arrays.fill(this.depthBuffer, depth);
+            if (this.samples != 1) {
+                for (float[] sampleDepth : this.sampleDepthBuffers) {
+                    Arrays.fill(sampleDepth, depth);
+                }
+            }
+            Arrays.fill(this.blockMaxDepth, depth);
+            Arrays.fill(this.tileMaxDepth, depth);
+        }
+
+        //averages the samples of each pixel into the color buffer (weighted by alpha, the colors are not premultiplied)
+        //and keeps the nearest sample in the depth buffer, nothing to do with a single sample
+        public void resolve() {
+            if (this.samples == 1) {
+                return;
+            }
+            float invSamples = 1f / this.samples;
+            for (int i = 0; i < this.width * this.height; i++) {
+                float r = 0f;
+                float g = 0f;
+                float b = 0f;
+                float a = 0f;
+                float depth = Float.POSITIVE_INFINITY;
+                for (int j = 0; j < this.samples; j++) {
+                    float[] sampleColor = this.sampleColorBuffers[j];
+                    float sampleA = sampleColor[(i * 4) + 3];
+                    r += sampleColor[(i * 4) + 0] * sampleA;
+                    g += sampleColor[(i * 4) + 1] * sampleA;
+                    b += sampleColor[(i * 4) + 2] * sampleA;
+                    a += sampleA;
+                    depth = Math.min(depth, this.sampleDepthBuffers[j][i]);
+                }
+                float invA = (a == 0f ? 0f : 1f / a);
+                this.colorBuffer[(i * 4) + 0] = r * invA;
+                this.colorBuffer[(i * 4) + 1] = g * invA;
+                this.colorBuffer[(i * 4) + 2] = b * invA;
+                this.colorBuffer[(i * 4) + 3] = a * invSamples;
+                this.depthBuffer[i] = depth;
+            }
+        }
+
+        private void allocateGBuffer() {
+            if (this.normalBuffer == null) {
+                this.normalBuffer = new float[this.width * this.height * 3];
+                this.positionBuffer = new float[this.width * this.height * 3];
+                if (this.samples != 1) {
+                    this.deferredSamples = new byte[this.width * this.height];
+                }
+                clearGBuffer();
+            }
+        }
+
+        public void clearGBuffer() {
+            if (this.normalBuffer != null) {
+                Arrays.fill(this.normalBuffer, Float.NaN);
+            }
+            if (this.deferredSamples != null) {
+                Arrays.fill(this.deferredSamples, (byte) 0);
+            }
+        }
+
+        private void allocateTransparencyBuffers() {
+            if (this.accumulationBuffer == null) {
+                this.accumulationBuffer = new float[this.width * this.height * 4];
+                this.revealageBuffer = new float[this.width * this.height];
+                clearTransparency();
+            }
+        }
+
+        public void clearTransparency() {
+            if (this.accumulationBuffer != null) {
+                Arrays.fill(this.accumulationBuffer, 0f);
+                Arrays.fill(this.revealageBuffer, 1f);
+            }
+        }
+
+        //composites the accumulated transparency over every sample of the surface and clears it
+        public void compositeTransparency() {
+            if (this.accumulationBuffer == null) {
+                return;
+            }
+            for (int i = 0; i < this.width * this.height; i++) {
+                float revealage = this.revealageBuffer[i];
+                if (revealage == 1f) {
+                    continue;
+                }
+                float weight = Math.max(this.accumulationBuffer[(i * 4) + 3], 1e-5f);
+                float srcR = this.accumulationBuffer[(i * 4) + 0] / weight;
+                float srcG = this.accumulationBuffer[(i * 4) + 1] / weight;
+                float srcB = this.accumulationBuffer[(i * 4) + 2] / weight;
+                float srcA = 1f - revealage;
+
+                for (float[] sampleColor : this.sampleColorBuffers) {
+                    float dstA = sampleColor[(i * 4) + 3];
+                    float outA = srcA + (dstA * revealage);
+                    float invOutA = (outA == 0f ? 0f : 1f / outA);
+                    sampleColor[(i * 4) + 0] = ((srcR * srcA) + (sampleColor[(i * 4) + 0] * dstA * revealage)) * invOutA;
+                    sampleColor[(i * 4) + 1] = ((srcG * srcA) + (sampleColor[(i * 4) + 1] * dstA * revealage)) * invOutA;
+                    sampleColor[(i * 4) + 2] = ((srcB * srcA) + (sampleColor[(i * 4) + 2] * dstA * revealage)) * invOutA;
+                    sampleColor[(i * 4) + 3] = outA;
+                }
+            }
+            clearTransparency();
+        }
+    }
+
+    //awt interop
+    public static Texture wrapImageToTexture(BufferedImage image) {
+        return new Texture() {
+            private final BufferedImage wrapped = image;
+
+            @Override
+            public int width() {
+                return this.wrapped.getWidth();
+            }
+
+            @Override
+            public int height() {
+                return this.wrapped.getHeight();
+            }
+
+            @Override
+            public void fetch(int x, int y, float[] result, int offset) {
+                int pixel = this.wrapped.getRGB(x, (height() - 1) - y);
+                result[offset + 0] = ((pixel >> 16) & 0xFF) / 255f;
+                result[offset + 1] = ((pixel >> 8) & 0xFF) / 255f;
+                result[offset + 2] = ((pixel >> 0) & 0xFF) / 255f;
+                result[offset + 3] = ((pixel >> 24) & 0xFF) / 255f;
+            }
+        };
+    }
+
+    public static Texture imageTo16BitsTexture(BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] bufferedData = image.getRGB(0, 0, width, height, null, 0, width);
+        final short[] pixelData = new short[width * height];
+
+        for (int i = 0; i < width * height; i++) {
+            int x = i % width;
+            int y = i / width;
+            int imagePixel = bufferedData[x + (((height - 1) - y) * width)];
+            int rBits = (int) ((((imagePixel >> 16) & 0xFF) / 255f) * 15f);
+            int gBits = (int) ((((imagePixel >> 8) & 0xFF) / 255f) * 15f);
+            int bBits = (int) ((((imagePixel >> 0) & 0xFF) / 255f) * 15f);
+            int aBits = (int) ((((imagePixel >> 24) & 0xFF) / 255f) * 15f);
+            pixelData[i] = (short) ((rBits << 12) | (gBits << 8) | (bBits << 4) | (aBits << 0));
+        }
+
+        return new Texture() {
+            @Override
+            public int width() {
+                return width;
+            }
+
+            @Override
+            public int height() {
+                return height;
+            }
+
+            @Override
+            public void fetch(int x, int y, float[] result, int offset) {
+                int pixel = pixelData[x + (y * width())] & 0xFFFF;
+                float r = ((pixel >> 12) & 0x0F) / 15f;
+                float g = ((pixel >> 8) & 0x0F) / 15f;
+                float b = ((pixel >> 4) & 0x0F) / 15f;
+                float a = ((pixel >> 0) & 0x0F) / 15f;
+                result[offset + 0] = r;
+                result[offset + 1] = g;
+                result[offset + 2] = b;
+                result[offset + 3] = a;
+            }
+        };
+    }
+
+    public static Texture imageTo256ColorsTexture(BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] bufferedData = image.getRGB(0, 0, width, height, null, 0, width);
+        final byte[] pixelData = new byte[width * height];
+
+        for (int i = 0; i < width * height; i++) {
+            int x = i % width;
+            int y = i / width;
+            int imagePixel = bufferedData[x + (((height - 1) - y) * width)];
+            float alpha = ((imagePixel >> 24) & 0xFF) / 255f;
+            int rBits = (int) ((((imagePixel >> 16) & 0xFF) / 255f) * 7f);
+            int gBits = (int) ((((imagePixel >> 8) & 0xFF) / 255f) * 7f);
+            int bBits = (int) ((((imagePixel >> 0) & 0xFF) / 255f) * 3f);
+            if (rBits == 0 && gBits == 0 && bBits == 0) {
+                rBits = 2;
+                gBits = 2;
+                bBits = 1;
+            }
+            if (alpha < 0.5f) {
+                rBits = 0;
+                gBits = 0;
+                bBits = 0;
+            }
+            pixelData[i] = (byte) ((rBits << 5) | (gBits << 2) | (bBits << 0));
+        }
+
+        return new Texture() {
+            @Override
+            public int width() {
+                return width;
+            }
+
+            @Override
+            public int height() {
+                return height;
+            }
+
+            @Override
+            public void fetch(int x, int y, float[] result, int offset) {
+                int pixel = pixelData[x + (y * width())] & 0xFF;
+                float r = ((pixel >> 5) & 0x07) / 7f;
+                float g = ((pixel >> 2) & 0x07) / 7f;
+                float b = ((pixel >> 0) & 0x03) / 3f;
+                float a = (r == 0f && g == 0f && b == 0f ? 0f : 1f);
+                result[offset + 0] = r;
+                result[offset + 1] = g;
+                result[offset + 2] = b;
+                result[offset + 3] = a;
+            }
+        };
+    }
+
+    public static Texture imageToTexture(BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] bufferedData = image.getRGB(0, 0, width, height, null, 0, width);
+        final float[] pixelData = new float[width * height * 4];
+
+        for (int i = 0; i < width * height; i++) {
+            int x = i % width;
+            int y = i / width;
+
+            int pixel = bufferedData[x + (((height - 1) - y) * width)];
+
+            pixelData[((x + (y * width)) * 4) + 0] = ((pixel >> 16) & 0xFF) / 255f;
+            pixelData[((x + (y * width)) * 4) + 1] = ((pixel >> 8) & 0xFF) / 255f;
+            pixelData[((x + (y * width)) * 4) + 2] = ((pixel >> 0) & 0xFF) / 255f;
+            pixelData[((x + (y * width)) * 4) + 3] = ((pixel >> 24) & 0xFF) / 255f;
+        }
+
+        return new FloatTexture(width, height, pixelData);
+    }
+
+    //rgba float texture, final so the rasterizer can call it without going through the interface
+    private static final class FloatTexture implements Texture {
+
+        private final int width;
+        private final int height;
+        private final float[] data;
+
+        public FloatTexture(int width, int height, float[] data) {
+            this.width = width;
+            this.height = height;
+            this.data = data;
+        }
+
+        @Override
+        public int width() {
+            return this.width;
+        }
+
+        @Override
+        public int height() {
+            return this.height;
+        }
+
+        @Override
+        public void fetch(int x, int y, float[] result, int offset) {
+            System.arraycopy(this.data, (x + (y * this.width)) * 4, result, offset, 4);
+        }
+    }
+
+    public static BufferedImage textureToImage(Texture t) {
+        if (t == null) {
+            throw new NullPointerException("Texture is null.");
+        }
+
+        int width = t.width();
+        int height = t.height();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        float[] cache = new float[4];
+        int[] intCache = new int[4];
+        int[] data = new int[width * height];
+
+        for (int i = 0; i < width * height; i++) {
+            int x = i % width;
+            int y = i / width;
+
+            t.fetch(x, (height - y) - 1, cache, 0);
+            for (int j = 0; j < intCache.length; j++) {
+                intCache[j] = Math.min((int) (cache[j] * 255f), 255);
+            }
+            data[i] = (intCache[3] << 24) | (intCache[0] << 16) | (intCache[1] << 8) | (intCache[2] << 0);
+        }
+
+        image.setRGB(0, 0, width, height, data, 0, width);
+
+        return image;
+    }
+
+    //vertex builder
+    public static class MeshBuilder {
+
+        //local position, uv, normal, color
+        private static final int LOCAL_VERTEX_SIZE = 3 + 2 + 3 + 4;
+
+        public static final int VERTEX_SIZE = LOCAL_VERTEX_SIZE;
+
+        public static final int POS_X = 0;
+        public static final int POS_Y = 1;
+        public static final int POS_Z = 2;
+        public static final int TEX_U = 3;
+        public static final int TEX_V = 4;
+        public static final int NRM_X = 5;
+        public static final int NRM_Y = 6;
+        public static final int NRM_Z = 7;
+        public static final int CLR_R = 8;
+        public static final int CLR_G = 9;
+        public static final int CLR_B = 10;
+        public static final int CLR_A = 11;
+
+        private float[] positions = new float[64];
+        private int positionsIndex = 0;
+
+        private float[] uvs = new float[64];
+        private int uvsIndex = 0;
+
+        private float[] normals = new float[64];
+        private int normalsIndex = 0;
+
+        private float[] colors = new float[64];
+        private int colorsIndex = 0;
+
+        private float[] vertices = new float[LOCAL_VERTEX_SIZE * 32];
+        private int verticesIndex = 0;
+
+        public MeshBuilder() {
+
+        }
+
+        public int position(float x, float y, float z) {
+            if ((this.positionsIndex + 3) > this.positions.length) {
+                this.positions = Arrays.copyOf(this.positions, this.positions.length * 2);
+            }
+
+            this.positions[this.positionsIndex + 0] = x;
+            this.positions[this.positionsIndex + 1] = y;
+            this.positions[this.positionsIndex + 2] = z;
+
+            this.positionsIndex += 3;
+
+            return (this.positionsIndex / 3);
+        }
+
+        public int texture(float u, float v) {
+            if ((this.uvsIndex + 2) > this.uvs.length) {
+                this.uvs = Arrays.copyOf(this.uvs, this.uvs.length * 2);
+            }
+
+            this.uvs[this.uvsIndex + 0] = u;
+            this.uvs[this.uvsIndex + 1] = v;
+
+            this.uvsIndex += 2;
+
+            return (this.uvsIndex / 2);
+        }
+
+        public int normal(float nX, float nY, float nZ) {
+            if ((this.normalsIndex + 3) > this.normals.length) {
+                this.normals = Arrays.copyOf(this.normals, this.normals.length * 2);
+            }
+
+            this.normals[this.normalsIndex + 0] = nX;
+            this.normals[this.normalsIndex + 1] = nY;
+            this.normals[this.normalsIndex + 2] = nZ;
+
+            this.normalsIndex += 3;
+
+            return (this.normalsIndex / 3);
+        }
+
+        public int color(float r, float g, float b, float a) {
+            if ((this.colorsIndex + 4) > this.colors.length) {
+                this.colors = Arrays.copyOf(this.colors, this.colors.length * 2);
+            }
+
+            this.colors[this.colorsIndex + 0] = r;
+            this.colors[this.colorsIndex + 1] = g;
+            this.colors[this.colorsIndex + 2] = b;
+            this.colors[this.colorsIndex + 3] = a;
+
+            this.colorsIndex += 4;
+
+            return (this.colorsIndex / 4);
+        }
+
+        public void vertex(int positionIndex, int textureIndex, int normalIndex, int colorIndex) {
+            float x = 0f;
+            float y = 0f;
+            float z = 0f;
+            if (positionIndex != 0) {
+                positionIndex--;
+
+                x = this.positions[(positionIndex * 3) + 0];
+                y = this.positions[(positionIndex * 3) + 1];
+                z = this.positions[(positionIndex * 3) + 2];
+            }
+
+            float u = 0f;
+            float v = 0f;
+            if (textureIndex != 0) {
+                textureIndex--;
+
+                u = this.uvs[(textureIndex * 2) + 0];
+                v = this.uvs[(textureIndex * 2) + 1];
+            }
+
+            float nX = Float.NaN;
+            float nY = Float.NaN;
+            float nZ = Float.NaN;
+            if (normalIndex != 0) {
+                normalIndex--;
+
+                nX = this.normals[(normalIndex * 3) + 0];
+                nY = this.normals[(normalIndex * 3) + 1];
+                nZ = this.normals[(normalIndex * 3) + 2];
+            }
+
+            float r = 1f;
+            float g = 1f;
+            float b = 1f;
+            float a = 1f;
+            if (colorIndex != 0) {
+                colorIndex--;
+
+                r = this.colors[(colorIndex * 4) + 0];
+                g = this.colors[(colorIndex * 4) + 1];
+                b = this.colors[(colorIndex * 4) + 2];
+                a = this.colors[(colorIndex * 4) + 3];
+            }
+
+            if ((this.verticesIndex + LOCAL_VERTEX_SIZE) > this.vertices.length) {
+                this.vertices = Arrays.copyOf(this.vertices, (this.vertices.length * 2) + LOCAL_VERTEX_SIZE);
+            }
+
+            //local position
+            this.vertices[this.verticesIndex + POS_X] = x;
+            this.vertices[this.verticesIndex + POS_Y] = y;
+            this.vertices[this.verticesIndex + POS_Z] = z;
+
+            //uv
+            this.vertices[this.verticesIndex + TEX_U] = u;
+            this.vertices[this.verticesIndex + TEX_V] = v;
+
+            //normal
+            this.vertices[this.verticesIndex + NRM_X] = nX;
+            this.vertices[this.verticesIndex + NRM_Y] = nY;
+            this.vertices[this.verticesIndex + NRM_Z] = nZ;
+
+            //color
+            this.vertices[this.verticesIndex + CLR_R] = r;
+            this.vertices[this.verticesIndex + CLR_G] = g;
+            this.vertices[this.verticesIndex + CLR_B] = b;
+            this.vertices[this.verticesIndex + CLR_A] = a;
+
+            this.verticesIndex += LOCAL_VERTEX_SIZE;
+
+            if ((this.verticesIndex / LOCAL_VERTEX_SIZE) % 3 == 0) {
+                int v2 = this.verticesIndex - LOCAL_VERTEX_SIZE;
+                int v1 = v2 - LOCAL_VERTEX_SIZE;
+                int v0 = v1 - LOCAL_VERTEX_SIZE;
+
+                float v0nx = this.vertices[v0 + NRM_X];
+                float v0ny = this.vertices[v0 + NRM_Y];
+                float v0nz = this.vertices[v0 + NRM_Z];
+
+                float v1nx = this.vertices[v1 + NRM_X];
+                float v1ny = this.vertices[v1 + NRM_Y];
+                float v1nz = this.vertices[v1 + NRM_Z];
+
+                float v2nx = this.vertices[v2 + NRM_X];
+                float v2ny = this.vertices[v2 + NRM_Y];
+                float v2nz = this.vertices[v2 + NRM_Z];
+
+                if (flatShaded(v0nx, v0ny, v0nz) || flatShaded(v1nx, v1ny, v1nz) || flatShaded(v2nx, v2ny, v2nz)) {
+                    float v0x = this.vertices[v0 + POS_X];
+                    float v0y = this.vertices[v0 + POS_Y];
+                    float v0z = this.vertices[v0 + POS_Z];
+
+                    float v1x = this.vertices[v1 + POS_X];
+                    float v1y = this.vertices[v1 + POS_Y];
+                    float v1z = this.vertices[v1 + POS_Z];
+
+                    float v2x = this.vertices[v2 + POS_X];
+                    float v2y = this.vertices[v2 + POS_Y];
+                    float v2z = this.vertices[v2 + POS_Z];
+
+                    Vector3f A = new Vector3f();
+                    Vector3f B = new Vector3f();
+                    Vector3f N = new Vector3f();
+
+                    A.set(v1x, v1y, v1z).sub(v0x, v0y, v0z);
+                    B.set(v2x, v2y, v2z).sub(v0x, v0y, v0z);
+                    N.set(A).cross(B).normalize();
+
+                    v0nx = N.x();
+                    v0ny = N.y();
+                    v0nz = N.z();
+
+                    this.vertices[v0 + NRM_X] = v0nx;
+                    this.vertices[v0 + NRM_Y] = v0ny;
+                    this.vertices[v0 + NRM_Z] = v0nz;
+
+                    this.vertices[v1 + NRM_X] = v0nx;
+                    this.vertices[v1 + NRM_Y] = v0ny;
+                    this.vertices[v1 + NRM_Z] = v0nz;
+
+                    this.vertices[v2 + NRM_X] = v0nx;
+                    this.vertices[v2 + NRM_Y] = v0ny;
+                    this.vertices[v2 + NRM_Z] = v0nz;
+                }
+            }
+        }
+
+        private boolean flatShaded(float x, float y, float z) {
+            return Float.isNaN(x) || Float.isNaN(y) || Float.isNaN(z);
+        }
+
+        public float[] vertices() {
+            if ((this.verticesIndex / LOCAL_VERTEX_SIZE) % 3 != 0) {
+                throw new IllegalArgumentException("The stream does not contains triangles. (The number of vertices cannot be divided by 3)");
+            }
+
+            return Arrays.copyOf(this.vertices, this.verticesIndex);
+        }
+
+        //unique vertices and the triangles indices, vertices with the same position, uv, normal and color are merged
+        public Mesh mesh() {
+            if ((this.verticesIndex / LOCAL_VERTEX_SIZE) % 3 != 0) {
+                throw new IllegalArgumentException("The stream does not contains triangles. (The number of vertices cannot be divided by 3)");
+            }
+
+            int numberOfVertices = this.verticesIndex / LOCAL_VERTEX_SIZE;
+
+            float[] unique = new float[this.verticesIndex];
+            int uniqueIndex = 0;
+            int[] indices = new int[numberOfVertices];
+
+            Map<VertexKey, Integer> map = new HashMap<>();
+            for (int i = 0; i < numberOfVertices; i++) {
+                VertexKey key = new VertexKey(this.vertices, i * LOCAL_VERTEX_SIZE);
+                Integer index = map.get(key);
+                if (index == null) {
+                    index = uniqueIndex / LOCAL_VERTEX_SIZE;
+                    System.arraycopy(this.vertices, key.offset, unique, uniqueIndex, LOCAL_VERTEX_SIZE);
+                    uniqueIndex += LOCAL_VERTEX_SIZE;
+                    map.put(key, index);
+                }
+                indices[i] = index;
+            }
+
+            return new Mesh(Arrays.copyOf(unique, uniqueIndex), indices);
+        }
+
+        //a vertex of the stream compared by the bits of its values
+        private static class VertexKey {
+
+            private final float[] vertices;
+            private final int offset;
+            private final int hash;
+
+            public VertexKey(float[] vertices, int offset) {
+                this.vertices = vertices;
+                this.offset = offset;
+                int h = 1;
+                for (int i = 0; i < LOCAL_VERTEX_SIZE; i++) {
+                    h = (31 * h) + Float.floatToIntBits(vertices[offset + i]);
+                }
+                this.hash = h;
+            }
+
+            @Override
+            public int hashCode() {
+                return this.hash;
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                if (!(obj instanceof VertexKey other) || other.hash != this.hash) {
+                    return false;
+                }
+                for (int i = 0; i < LOCAL_VERTEX_SIZE; i++) {
+                    if (Float.floatToIntBits(this.vertices[this.offset + i]) != Float.floatToIntBits(other.vertices[other.offset + i])) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+    }
+
+    //mesh, vertices in the MeshBuilder layout and optional triangle indices,
+    //without indices every three vertices are a triangle,
+    //the vertices are kept as columns, compressed meshes only keep their packed vertices,
+    //which are decoded by the vertex stage, and the meshes of setMesh(float[]) keep the array they wrap
+    public static class Mesh {
+
+        private final Columns columns;
+        private final Packed packed;
+        //only for the meshes wrapping the arrays of setMesh(float[]), which may be edited in place,
+        //the transformed vertices of wrapped and compressed meshes are never cached
+        private final float[] vertices;
+        private final int numberOfVertices;
+        private final int[] indices;
+        private final Vector3f min = new Vector3f();
+        private final Vector3f max = new Vector3f();
+        private final Vector3f center = new Vector3f();
+        private final float radius;
+        private final float[] facePlanes;
+        private final Vector4f constantColor = new Vector4f(1f, 1f, 1f, 1f);
+        private final boolean constantColorMesh;
+
+        //the vertices as one array per component (structure of arrays), read by the scalar and the vectorized
+        //vertex stage, the colors are not kept if they are constant
+        private static class Columns {
+
+            private final float[] x;
+            private final float[] y;
+            private final float[] z;
+            private final float[] u;
+            private final float[] v;
+            private final float[] nx;
+            private final float[] ny;
+            private final float[] nz;
+            private final float[] r;
+            private final float[] g;
+            private final float[] b;
+            private final float[] a;
+
+            public Columns(int numberOfVertices, boolean colors) {
+                this.x = new float[numberOfVertices];
+                this.y = new float[numberOfVertices];
+                this.z = new float[numberOfVertices];
+                this.u = new float[numberOfVertices];
+                this.v = new float[numberOfVertices];
+                this.nx = new float[numberOfVertices];
+                this.ny = new float[numberOfVertices];
+                this.nz = new float[numberOfVertices];
+                this.r = (colors ? new float[numberOfVertices] : null);
+                this.g = (colors ? new float[numberOfVertices] : null);
+                this.b = (colors ? new float[numberOfVertices] : null);
+                this.a = (colors ? new float[numberOfVertices] : null);
+            }
+
+            public Columns(float[] vertices, boolean colors) {
+                this(vertices.length / MeshBuilder.LOCAL_VERTEX_SIZE, colors);
+                set(vertices, 0, this.x.length);
+            }
+
+            //the vertices from first to last of the MeshBuilder layout, starting at the first column
+            public void set(float[] vertices, int first, int last) {
+                for (int i = first; i < last; i++) {
+                    int v = i * MeshBuilder.LOCAL_VERTEX_SIZE;
+                    int c = i - first;
+                    this.x[c] = vertices[v + MeshBuilder.POS_X];
+                    this.y[c] = vertices[v + MeshBuilder.POS_Y];
+                    this.z[c] = vertices[v + MeshBuilder.POS_Z];
+                    this.u[c] = vertices[v + MeshBuilder.TEX_U];
+                    this.v[c] = vertices[v + MeshBuilder.TEX_V];
+                    this.nx[c] = vertices[v + MeshBuilder.NRM_X];
+                    this.ny[c] = vertices[v + MeshBuilder.NRM_Y];
+                    this.nz[c] = vertices[v + MeshBuilder.NRM_Z];
+                    if (this.r != null) {
+                        this.r[c] = vertices[v + MeshBuilder.CLR_R];
+                        this.g[c] = vertices[v + MeshBuilder.CLR_G];
+                        this.b[c] = vertices[v + MeshBuilder.CLR_B];
+                        this.a[c] = vertices[v + MeshBuilder.CLR_A];
+                    }
+                }
+            }
+
+            //the vertices in the MeshBuilder layout, with the constant color if the colors are not kept
+            public float[] interleave(Vector4fc color) {
+                float[] vertices = new float[this.x.length * MeshBuilder.LOCAL_VERTEX_SIZE];
+                for (int i = 0; i < this.x.length; i++) {
+                    int v = i * MeshBuilder.LOCAL_VERTEX_SIZE;
+                    vertices[v + MeshBuilder.POS_X] = this.x[i];
+                    vertices[v + MeshBuilder.POS_Y] = this.y[i];
+                    vertices[v + MeshBuilder.POS_Z] = this.z[i];
+                    vertices[v + MeshBuilder.TEX_U] = this.u[i];
+                    vertices[v + MeshBuilder.TEX_V] = this.v[i];
+                    vertices[v + MeshBuilder.NRM_X] = this.nx[i];
+                    vertices[v + MeshBuilder.NRM_Y] = this.ny[i];
+                    vertices[v + MeshBuilder.NRM_Z] = this.nz[i];
+                    vertices[v + MeshBuilder.CLR_R] = (this.r != null ? this.r[i] : color.x());
+                    vertices[v + MeshBuilder.CLR_G] = (this.g != null ? this.g[i] : color.y());
+                    vertices[v + MeshBuilder.CLR_B] = (this.b != null ? this.b[i] : color.z());
+                    vertices[v + MeshBuilder.CLR_A] = (this.a != null ? this.a[i] : color.w());
+                }
+                return vertices;
+            }
+        }
+
+        //compressed vertices, 14 bytes per vertex (18 with colors) instead of 48,
+        //positions and uvs are 16 bits quantized to their bounds, normals are octahedral encoded in two 16 bits
+        //and the colors are rgba8 (clamped to 0 and 1) if the color is not constant
+        private static class Packed {
+
+            //both normal components at -32768, never written by the encoder
+            private static final int FLAT_NORMAL = 0x80008000;
+
+            private final short[] positions;
+            private final short[] uvs;
+            private final int[] normals;
+            private final int[] colors;
+            private final float[] positionMin = new float[3];
+            private final float[] positionScale = new float[3];
+            private final float[] uvMin = new float[2];
+            private final float[] uvScale = new float[2];
+            private final float[] constantColor;
+
+            public Packed(float[] vertices) {
+                int numberOfVertices = vertices.length / MeshBuilder.LOCAL_VERTEX_SIZE;
+                this.positions = new short[numberOfVertices * 3];
+                this.uvs = new short[numberOfVertices * 2];
+                this.normals = new int[numberOfVertices];
+
+                if (numberOfVertices != 0 && hasConstantColor(vertices)) {
+                    this.constantColor = Arrays.copyOfRange(vertices, MeshBuilder.CLR_R, MeshBuilder.CLR_A + 1);
+                    this.colors = null;
+                } else {
+                    this.constantColor = new float[]{1f, 1f, 1f, 1f};
+                    this.colors = new int[numberOfVertices];
+                }
+
+                quantize(vertices, MeshBuilder.POS_X, 3, this.positions, this.positionMin, this.positionScale);
+                quantize(vertices, MeshBuilder.TEX_U, 2, this.uvs, this.uvMin, this.uvScale);
+
+                for (int i = 0; i < numberOfVertices; i++) {
+                    int v = i * MeshBuilder.LOCAL_VERTEX_SIZE;
+                    this.normals[i] = encodeNormal(
+                            vertices[v + MeshBuilder.NRM_X],
+                            vertices[v + MeshBuilder.NRM_Y],
+                            vertices[v + MeshBuilder.NRM_Z]
+                    );
+                    if (this.colors != null) {
+                        int color = 0;
+                        for (int c = 0; c < 4; c++) {
+                            float value = Math.min(Math.max(vertices[v + MeshBuilder.CLR_R + c], 0f), 1f);
+                            color |= Math.round(value * 255f) << (c * 8);
+                        }
+                        this.colors[i] = color;
+                    }
+                }
+            }
+
+            //each component from 0 to 65535 between the min and max of the component
+            private static void quantize(float[] vertices, int offset, int components, short[] output, float[] min, float[] scale) {
+                int numberOfVertices = vertices.length / MeshBuilder.LOCAL_VERTEX_SIZE;
+                for (int c = 0; c < components; c++) {
+                    float low = Float.POSITIVE_INFINITY;
+                    float high = Float.NEGATIVE_INFINITY;
+                    for (int v = offset + c; v < vertices.length; v += MeshBuilder.LOCAL_VERTEX_SIZE) {
+                        low = Math.min(low, vertices[v]);
+                        high = Math.max(high, vertices[v]);
+                    }
+                    if (numberOfVertices == 0) {
+                        low = 0f;
+                        high = 0f;
+                    }
+                    float extent = high - low;
+                    min[c] = low;
+                    scale[c] = extent / 65535f;
+                    for (int i = 0; i < numberOfVertices; i++) {
+                        float value = vertices[(i * MeshBuilder.LOCAL_VERTEX_SIZE) + offset + c];
+                        int q = (extent > 0f ? Math.round(((value - low) / extent) * 65535f) : 0);
+                        output[(i * components) + c] = (short) Math.min(Math.max(q, 0), 65535);
+                    }
+                }
+            }
+
+            private static float signNotZero(float value) {
+                return (value >= 0f ? 1f : -1f);
+            }
+
+            //the normal projected on an octahedron and the lower half folded over the upper one,
+            //normals without a direction (or with nan) become the flat normal
+            private static int encodeNormal(float x, float y, float z) {
+                float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+                if (!(length > 0f) || !Float.isFinite(length)) {
+                    return FLAT_NORMAL;
+                }
+                float u = x / length;
+                float v = y / length;
+                if (z < 0f) {
+                    float foldedU = (1f - Math.abs(v)) * signNotZero(u);
+                    float foldedV = (1f - Math.abs(u)) * signNotZero(v);
+                    u = foldedU;
+                    v = foldedV;
+                }
+                int su = Math.round(Math.min(Math.max(u, -1f), 1f) * 32767f);
+                int sv = Math.round(Math.min(Math.max(v, -1f), 1f) * 32767f);
+                return (su & 0xFFFF) | (sv << 16);
+            }
+
+            //normalized normal into the output, nan for the flat normal
+            private static void decodeNormal(int encoded, float[] output, int offset) {
+                if (encoded == FLAT_NORMAL) {
+                    output[offset + 0] = Float.NaN;
+                    output[offset + 1] = Float.NaN;
+                    output[offset + 2] = Float.NaN;
+                    return;
+                }
+                float u = ((short) encoded) / 32767f;
+                float v = (encoded >> 16) / 32767f;
+                float z = 1f - Math.abs(u) - Math.abs(v);
+                if (z < 0f) {
+                    float unfoldedU = (1f - Math.abs(v)) * signNotZero(u);
+                    float unfoldedV = (1f - Math.abs(u)) * signNotZero(v);
+                    u = unfoldedU;
+                    v = unfoldedV;
+                }
+                float inverseLength = 1f / (float) Math.sqrt((u * u) + (v * v) + (z * z));
+                output[offset + 0] = u * inverseLength;
+                output[offset + 1] = v * inverseLength;
+                output[offset + 2] = z * inverseLength;
+            }
+
+            //a vertex in the MeshBuilder layout
+            public void decode(int index, float[] output, int offset) {
+                for (int c = 0; c < 3; c++) {
+                    output[offset + MeshBuilder.POS_X + c] = this.positionMin[c] + ((this.positions[(index * 3) + c] & 0xFFFF) * this.positionScale[c]);
+                }
+                for (int c = 0; c < 2; c++) {
+                    output[offset + MeshBuilder.TEX_U + c] = this.uvMin[c] + ((this.uvs[(index * 2) + c] & 0xFFFF) * this.uvScale[c]);
+                }
+                decodeNormal(this.normals[index], output, offset + MeshBuilder.NRM_X);
+                for (int c = 0; c < 4; c++) {
+                    if (this.colors != null) {
+                        output[offset + MeshBuilder.CLR_R + c] = ((this.colors[index] >>> (c * 8)) & 0xFF) / 255f;
+                    } else {
+                        output[offset + MeshBuilder.CLR_R + c] = this.constantColor[c];
+                    }
+                }
+            }
+
+            //the vertices from first to last, starting at the first column, only the positions if not every attribute
+            public void decode(Columns columns, int first, int last, boolean attributes) {
+                for (int i = first; i < last; i++) {
+                    int c = i - first;
+                    columns.x[c] = this.positionMin[0] + ((this.positions[(i * 3) + 0] & 0xFFFF) * this.positionScale[0]);
+                    columns.y[c] = this.positionMin[1] + ((this.positions[(i * 3) + 1] & 0xFFFF) * this.positionScale[1]);
+                    columns.z[c] = this.positionMin[2] + ((this.positions[(i * 3) + 2] & 0xFFFF) * this.positionScale[2]);
+                }
+                if (!attributes) {
+                    return;
+                }
+                for (int i = first; i < last; i++) {
+                    int c = i - first;
+                    columns.u[c] = this.uvMin[0] + ((this.uvs[(i * 2) + 0] & 0xFFFF) * this.uvScale[0]);
+                    columns.v[c] = this.uvMin[1] + ((this.uvs[(i * 2) + 1] & 0xFFFF) * this.uvScale[1]);
+                }
+                float[] normal = SCRATCH.get().decodedNormal;
+                for (int i = first; i < last; i++) {
+                    int c = i - first;
+                    decodeNormal(this.normals[i], normal, 0);
+                    columns.nx[c] = normal[0];
+                    columns.ny[c] = normal[1];
+                    columns.nz[c] = normal[2];
+                }
+                for (int i = first; i < last; i++) {
+                    int c = i - first;
+                    if (this.colors != null) {
+                        int color = this.colors[i];
+                        columns.r[c] = (color & 0xFF) / 255f;
+                        columns.g[c] = ((color >>> 8) & 0xFF) / 255f;
+                        columns.b[c] = ((color >>> 16) & 0xFF) / 255f;
+                        columns.a[c] = ((color >>> 24) & 0xFF) / 255f;
+                    } else {
+                        columns.r[c] = this.constantColor[0];
+                        columns.g[c] = this.constantColor[1];
+                        columns.b[c] = this.constantColor[2];
+                        columns.a[c] = this.constantColor[3];
+                    }
+                }
+            }
+
+            public float[] decode() {
+                float[] vertices = new float[this.normals.length * MeshBuilder.LOCAL_VERTEX_SIZE];
+                for (int i = 0; i < this.normals.length; i++) {
+                    decode(i, vertices, i * MeshBuilder.LOCAL_VERTEX_SIZE);
+                }
+                return vertices;
+            }
+        }
+
+        //a compressed mesh (opt in, meshes are never compressed by the renderer), positions and uvs lose precision
+        //(1/65535 of their bounds), the bounds and the face planes are from the decoded vertices,
+        //it is decoded on every draw and its transformed vertices are not cached, so it stays compact
+        public static Mesh compressed(float[] vertices, int[] indices) {
+            if (vertices.length % MeshBuilder.LOCAL_VERTEX_SIZE != 0) {
+                throw new IllegalArgumentException("The vertices length must be a multiple of " + MeshBuilder.LOCAL_VERTEX_SIZE);
+            }
+            Packed packed = new Packed(vertices);
+            return new Mesh(packed.decode(), indices, packed, false);
+        }
+
+        //the vertices are copied into the columns of the mesh, changing the array later does not change the mesh
+        public Mesh(float[] vertices, int[] indices) {
+            this(vertices, indices, null, false);
+        }
+
+        //an unindexed mesh that reads its vertices from the array on every draw
+        private static Mesh wrap(float[] vertices) {
+            return new Mesh(vertices, null, null, true);
+        }
+
+        //if every vertex has the color of the first one
+        private static boolean hasConstantColor(float[] vertices) {
+            for (int v = 0; v < vertices.length; v += MeshBuilder.LOCAL_VERTEX_SIZE) {
+                for (int i = MeshBuilder.CLR_R; i <= MeshBuilder.CLR_A; i++) {
+                    if (vertices[v + i] != vertices[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private Mesh(float[] vertices, int[] indices, Packed packed, boolean wrapped) {
+            if (vertices.length % MeshBuilder.LOCAL_VERTEX_SIZE != 0) {
+                throw new IllegalArgumentException("The vertices length must be a multiple of " + MeshBuilder.LOCAL_VERTEX_SIZE);
+            }
+            int numberOfVertices = vertices.length / MeshBuilder.LOCAL_VERTEX_SIZE;
+            if (indices == null) {
+                if (numberOfVertices % 3 != 0) {
+                    throw new IllegalArgumentException("The stream does not contains triangles. (The number of vertices cannot be divided by 3)");
+                }
+            } else {
+                if (indices.length % 3 != 0) {
+                    throw new IllegalArgumentException("The stream does not contains triangles. (The number of indices cannot be divided by 3)");
+                }
+                for (int index : indices) {
+                    if (index < 0 || index >= numberOfVertices) {
+                        throw new IllegalArgumentException("Index out of bounds: " + index);
+                    }
+                }
+            }
+            this.packed = packed;
+            this.vertices = (wrapped ? vertices : null);
+            this.numberOfVertices = numberOfVertices;
+            this.indices = indices;
+
+            //bounds of every vertex, the sphere is centered on the box
+            if (numberOfVertices != 0) {
+                this.min.set(Float.POSITIVE_INFINITY);
+                this.max.set(Float.NEGATIVE_INFINITY);
+            }
+            for (int v = 0; v < vertices.length; v += MeshBuilder.LOCAL_VERTEX_SIZE) {
+                float x = vertices[v + MeshBuilder.POS_X];
+                float y = vertices[v + MeshBuilder.POS_Y];
+                float z = vertices[v + MeshBuilder.POS_Z];
+                this.min.set(Math.min(this.min.x(), x), Math.min(this.min.y(), y), Math.min(this.min.z(), z));
+                this.max.set(Math.max(this.max.x(), x), Math.max(this.max.y(), y), Math.max(this.max.z(), z));
+            }
+            this.center.set(this.min).add(this.max).mul(0.5f);
+            float radiusSquared = 0f;
+            for (int v = 0; v < vertices.length; v += MeshBuilder.LOCAL_VERTEX_SIZE) {
+                radiusSquared = Math.max(radiusSquared, this.center.distanceSquared(vertices[v + MeshBuilder.POS_X], vertices[v + MeshBuilder.POS_Y], vertices[v + MeshBuilder.POS_Z]));
+            }
+            this.radius = (float) Math.sqrt(radiusSquared);
+
+            //meshes with the same color in every vertex (like every obj) do not carry it through the pipeline
+            if (numberOfVertices != 0) {
+                this.constantColor.set(
+                        vertices[MeshBuilder.CLR_R],
+                        vertices[MeshBuilder.CLR_G],
+                        vertices[MeshBuilder.CLR_B],
+                        vertices[MeshBuilder.CLR_A]
+                );
+            }
+            this.constantColorMesh = hasConstantColor(vertices);
+            this.columns = (packed == null && !wrapped ? new Columns(vertices, !this.constantColorMesh) : null);
+
+            //plane of each triangle (normal and distance, not normalized), zero for triangles without area
+            int numberOfTriangles = (indices != null ? indices.length / 3 : numberOfVertices / 3);
+            this.facePlanes = new float[numberOfTriangles * 4];
+            for (int i = 0; i < numberOfTriangles; i++) {
+                int v0 = (indices != null ? indices[(i * 3) + 0] : (i * 3) + 0) * MeshBuilder.LOCAL_VERTEX_SIZE;
+                int v1 = (indices != null ? indices[(i * 3) + 1] : (i * 3) + 1) * MeshBuilder.LOCAL_VERTEX_SIZE;
+                int v2 = (indices != null ? indices[(i * 3) + 2] : (i * 3) + 2) * MeshBuilder.LOCAL_VERTEX_SIZE;
+
+                float v0x = vertices[v0 + MeshBuilder.POS_X];
+                float v0y = vertices[v0 + MeshBuilder.POS_Y];
+                float v0z = vertices[v0 + MeshBuilder.POS_Z];
+
+                float ax = vertices[v1 + MeshBuilder.POS_X] - v0x;
+                float ay = vertices[v1 + MeshBuilder.POS_Y] - v0y;
+                float az = vertices[v1 + MeshBuilder.POS_Z] - v0z;
+
+                float bx = vertices[v2 + MeshBuilder.POS_X] - v0x;
+                float by = vertices[v2 + MeshBuilder.POS_Y] - v0y;
+                float bz = vertices[v2 + MeshBuilder.POS_Z] - v0z;
+
+                float nx = (ay * bz) - (az * by);
+                float ny = (az * bx) - (ax * bz);
+                float nz = (ax * by) - (ay * bx);
+
+                this.facePlanes[(i * 4) + 0] = nx;
+                this.facePlanes[(i * 4) + 1] = ny;
+                this.facePlanes[(i * 4) + 2] = nz;
+                this.facePlanes[(i * 4) + 3] = -((nx * v0x) + (ny * v0y) + (nz * v0z));
+            }
+        }
+
+        public Mesh(float[] vertices) {
+            this(vertices, null);
+        }
+
+        //a new array on every call (except for the array wrapped by setMesh(float[])), the vertices are kept
+        //as columns or compressed, so changing it does not change the mesh
+        public float[] getVertices() {
+            if (this.vertices != null) {
+                return this.vertices;
+            }
+            if (this.packed != null) {
+                return this.packed.decode();
+            }
+            return this.columns.interleave(this.constantColor);
+        }
+
+        public boolean isCompressed() {
+            return this.packed != null;
+        }
+
+        //a compressed copy of this mesh, or this mesh if it is already compressed
+        public Mesh compress() {
+            if (this.packed != null) {
+                return this;
+            }
+            return compressed(getVertices(), this.indices);
+        }
+
+        private boolean isCacheable() {
+            return this.vertices == null && this.packed == null;
+        }
+
+        public int[] getIndices() {
+            return indices;
+        }
+
+        public boolean isIndexed() {
+            return this.indices != null;
+        }
+
+        public int getNumberOfVertices() {
+            return this.numberOfVertices;
+        }
+
+        public int getNumberOfTriangles() {
+            if (this.indices == null) {
+                return getNumberOfVertices() / 3;
+            }
+            return this.indices.length / 3;
+        }
+
+        //local space axis aligned bounding box
+        public Vector3fc getMin() {
+            return min;
+        }
+
+        public Vector3fc getMax() {
+            return max;
+        }
+
+        //local space bounding sphere
+        public Vector3fc getCenter() {
+            return center;
+        }
+
+        public float getRadius() {
+            return radius;
+        }
+
+        //OUTSIDE, INTERSECT or INSIDE of a frustum in local space, the sphere rejects most meshes cheaply
+        int intersectFrustum(FrustumIntersection frustum) {
+            if (!frustum.testSphere(this.center.x(), this.center.y(), this.center.z(), this.radius)) {
+                return FrustumIntersection.OUTSIDE;
+            }
+            int result = frustum.intersectAab(
+                    this.min.x(), this.min.y(), this.min.z(),
+                    this.max.x(), this.max.y(), this.max.z()
+            );
+            //a box outside the frustum gives the index of the plane that rejected it, not OUTSIDE
+            if (result >= 0) {
+                return FrustumIntersection.OUTSIDE;
+            }
+            return result;
+        }
+
+        public boolean isConstantColor() {
+            return constantColorMesh;
+        }
+
+        //the color of every vertex if the color is constant
+        public Vector4fc getConstantColor() {
+            return constantColor;
+        }
+
+        //local space plane of each triangle, the triangle is counter clockwise seen from its positive side
+        public float[] getFacePlanes() {
+            return facePlanes;
+        }
+    }
+
+    //vertex layout
+    //the attributes the vertices carry after the vertex stage, picked from the render state of a draw,
+    //the clip position (CX, CY, CZ and CW_INV) is always kept at the same offsets, the rest is packed after it
+    private static class VertexLayout {
+
+        //offset of each attribute (-1 if not kept)
+        private final int[] offsets = new int[VERTEX_SIZE];
+        private int size;
+        //the attributes kept as bits, layouts with the same key are the same
+        private int key;
+
+        private boolean uvs;
+        private boolean colors;
+        private boolean normals;
+        private boolean world;
+
+        public void set(boolean uvs, boolean colors, boolean normals, boolean world) {
+            this.uvs = uvs;
+            this.colors = colors;
+            this.normals = normals;
+            this.world = world;
+            this.key = (uvs ? 1 : 0) | (colors ? 2 : 0) | (normals ? 4 : 0) | (world ? 8 : 0);
+
+            Arrays.fill(this.offsets, -1);
+            this.size = 0;
+            add(CX);
+            add(CY);
+            add(CZ);
+            add(CW_INV);
+            if (uvs) {
+                add(U);
+                add(V);
+            }
+            if (colors) {
+                add(R);
+                add(G);
+                add(B);
+                add(A);
+            }
+            if (normals) {
+                add(NX);
+                add(NY);
+                add(NZ);
+            }
+            if (world) {
+                add(X);
+                add(Y);
+                add(Z);
+            }
+        }
+
+        private void add(int attribute) {
+            this.offsets[attribute] = this.size;
+            this.size++;
+        }
+    }
+
+    //vertex transformer
+    //transformed vertices of previous draws, meshes are immutable,
+    //an entry keeps the attributes of a layout while the model matrix of the mesh does not change,
+    //and the clip space positions while the camera does not change either,
+    //entries are only as large as their layout and every mesh shares the capacity of the cache
+    private static class VertexCache {
+
+        private static final int ENTRIES_PER_MESH = 8;
+
+        //16 MiB of transformed vertices
+        public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+        private static class Entry {
+
+            private final Matrix4f model = new Matrix4f();
+            private final Matrix4f projectionView = new Matrix4f();
+            private int layout = -1;
+            private float[] vertices = null;
+            private boolean attributesValid = false;
+            private boolean clipValid = false;
+            private long lastUse = 0;
+
+            private void evict() {
+                this.vertices = null;
+                this.attributesValid = false;
+                this.clipValid = false;
+            }
+        }
+
+        //the meshes are only weakly referenced, compared by identity
+        private final Map<Mesh, Entry[]> meshes = new WeakHashMap<>();
+        private long uses = 0;
+        private int capacity = DEFAULT_CAPACITY;
+
+        //the entry of the mesh with the same model and layout or the least recently used one, invalidated,
+        //with room for length floats, null if that is more than the capacity of the cache
+        public Entry get(Mesh mesh, Matrix4f model, VertexLayout layout, int length) {
+            if (length > this.capacity) {
+                return null;
+            }
+            Entry[] entries = this.meshes.get(mesh);
+            if (entries == null) {
+                entries = new Entry[ENTRIES_PER_MESH];
+                this.meshes.put(mesh, entries);
+            }
+            this.uses++;
+
+            Entry leastUsed = null;
+            for (int i = 0; i < entries.length; i++) {
+                Entry entry = entries[i];
+                if (entry == null) {
+                    entry = new Entry();
+                    entries[i] = entry;
+                }
+                if (entry.attributesValid && entry.layout == layout.key && entry.model.equals(model)) {
+                    entry.lastUse = this.uses;
+                    return entry;
+                }
+                if (leastUsed == null || entry.lastUse < leastUsed.lastUse) {
+                    leastUsed = entry;
+                }
+            }
+
+            leastUsed.model.set(model);
+            leastUsed.layout = layout.key;
+            leastUsed.attributesValid = false;
+            leastUsed.clipValid = false;
+            leastUsed.lastUse = this.uses;
+            if (leastUsed.vertices == null || leastUsed.vertices.length != length) {
+                leastUsed.vertices = null;
+                makeRoom(length);
+                leastUsed.vertices = new float[length];
+            }
+            return leastUsed;
+        }
+
+        //evicts the least recently used entries of every mesh until length more floats fit,
+        //only runs when an entry grows, so drawing the same meshes again does not get here
+        private void makeRoom(int length) {
+            while (true) {
+                long used = 0;
+                Entry leastUsed = null;
+                for (Entry[] entries : this.meshes.values()) {
+                    for (Entry entry : entries) {
+                        if (entry == null || entry.vertices == null) {
+                            continue;
+                        }
+                        used += entry.vertices.length;
+                        if (leastUsed == null || entry.lastUse < leastUsed.lastUse) {
+                            leastUsed = entry;
+                        }
+                    }
+                }
+                if (leastUsed == null || used + length <= this.capacity) {
+                    return;
+                }
+                leastUsed.evict();
+            }
+        }
+
+        public int getCapacity() {
+            return this.capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("The capacity cannot be negative: " + capacity);
+            }
+            this.capacity = capacity;
+            makeRoom(0);
+        }
+
+        public void clear() {
+            this.meshes.clear();
+        }
+    }
+
+    private class VertexTransformer {
+
+        private static final Vector4f[] clippingEdges = new Vector4f[]{
+            new Vector4f(-1, 0, 0, 1),
+            new Vector4f(1, 0, 0, 1),
+            new Vector4f(0, -1, 0, 1),
+            new Vector4f(0, 1, 0, 1),
+            new Vector4f(0, 0, -1, 1),
+            new Vector4f(0, 0, 1, 1)
+        };
+
+        //triangles with vertices inside of the guard band (in normalized device coordinates) that only cross
+        //the sides of the view are not clipped, the rasterizer scissors them to the surface,
+        //it is limited so the fixed point edges and the attribute planes keep their precision
+        private static final float GUARD_BAND = 4f;
+
+        //outcodes, the planes of the view and of the guard band a vertex is outside of
+        //the bit of each view plane is the index of its clipping edge
+        private static final int OUTSIDE_RIGHT = 1 << 0;
+        private static final int OUTSIDE_LEFT = 1 << 1;
+        private static final int OUTSIDE_TOP = 1 << 2;
+        private static final int OUTSIDE_BOTTOM = 1 << 3;
+        private static final int OUTSIDE_FAR = 1 << 4;
+        private static final int OUTSIDE_NEAR = 1 << 5;
+        private static final int OUTSIDE_GUARD_BAND = 1 << 6;
+
+        private static final int MUST_CLIP = OUTSIDE_NEAR | OUTSIDE_FAR | OUTSIDE_GUARD_BAND;
+
+        //work split for meshes large enough to be transformed and clipped by the workers
+        private static final int VERTICES_PER_CHUNK = 1024;
+        private static final int TRIANGLES_PER_CHUNK = 512;
+
+        private final SoftwareRenderer renderer;
+
+        //state of the current draw, set by transformAndClip
+        private Mesh mesh;
+        private Mesh.Columns columns;
+        private float[] localVertices;
+        private Mesh.Packed packed;
+        private int[] indices;
+        private boolean frustumCulling;
+        private VertexLayout layout;
+        private VertexCache cache;
+        private boolean multithread;
+        private boolean vectorized;
+        private final Matrix4f projectionView = new Matrix4f();
+        private final Matrix4f model = new Matrix4f();
+        private final Matrix3f normalModel = new Matrix3f();
+        private int width;
+        private int height;
+        private int numberOfTriangles;
+
+        private float[] tverts = null;
+        private boolean clipping = true;
+
+        //reused by every draw, the arrays only grow
+        private final Matrix4f matrix = new Matrix4f();
+        private final Vector4f eye = new Vector4f();
+        private final FrustumIntersection frustum = new FrustumIntersection();
+        private boolean[] frontFaces = new boolean[0];
+        private boolean[] usedVertices = new boolean[0];
+        private float[] uncachedVertices = new float[0];
+        private ClipStream[] streams = new ClipStream[0];
+        private float[] output = new float[0];
+
+        //the chunks of the current job and the inputs of its body, the bodies are created once,
+        //so running a job captures nothing
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final Runnable chunksJob = this::runChunks;
+        private final IntConsumer cullChunk = this::cullChunk;
+        private final IntConsumer attributesChunk = this::attributesChunk;
+        private final IntConsumer clipChunk = this::clipChunk;
+        private final IntConsumer trianglesChunk = this::trianglesChunk;
+        private int numberOfChunks;
+        private IntConsumer chunkBody;
+        private float[] chunkOutput;
+        private boolean[] chunkUsed;
+        private float eyeX;
+        private float eyeY;
+        private float eyeZ;
+        private float eyeW;
+
+        public VertexTransformer(SoftwareRenderer renderer) {
+            this.renderer = renderer;
+        }
+
+        private void set(VertexLayout layout) {
+            SoftwareRenderer renderer = this.renderer;
+            Mesh mesh = renderer.getMesh();
+            this.layout = layout;
+            this.mesh = mesh;
+            this.columns = mesh.columns;
+            this.localVertices = mesh.vertices;
+            this.packed = mesh.packed;
+            this.indices = mesh.getIndices();
+            this.cache = (renderer.isVertexCacheEnabled() && mesh.isCacheable() ? renderer.vertexCache : null);
+            this.multithread = renderer.isMultithreadEnabled();
+            this.vectorized = renderer.isVectorizationEnabled() && VECTOR_API_AVAILABLE;
+            this.frustumCulling = renderer.isFrustumCullingEnabled();
+            Vector3fc camera = renderer.getCameraPosition();
+            this.projectionView
+                    .set(renderer.getProjection())
+                    .mul(renderer.getView())
+                    .translate(-camera.x(), -camera.y(), -camera.z());
+            this.model
+                    .set(renderer.getModel());
+            if (renderer.isBillboardingEnabled()) {
+                this.model.mul(renderer.getView().invert(this.matrix));
+            }
+            this.normalModel.set(this.matrix.set(this.model).invert().transpose());
+            this.width = renderer.getWidth();
+            this.height = renderer.getHeight();
+            this.numberOfTriangles = mesh.getNumberOfTriangles();
+            this.tverts = null;
+            this.clipping = true;
+        }
+
+        //the transformed vertices are in the layout of the draw, the clip position is computed from the local position,
+        //only the vertices of front faces get their clip space position, and without the cache their attributes too,
+        //an entry keeps the attributes of every vertex, the front faces only change with the projection view
+        private float[] transformVertices() {
+            int outputLength = this.mesh.getNumberOfVertices() * this.layout.size;
+            VertexCache.Entry entry = null;
+            if (this.cache != null) {
+                entry = this.cache.get(this.mesh, this.model, this.layout, outputLength);
+            }
+            if (entry == null) {
+                if (this.uncachedVertices.length < outputLength) {
+                    this.uncachedVertices = new float[outputLength];
+                }
+                float[] output = this.uncachedVertices;
+                transformAttributes(output, this.usedVertices);
+                transformClip(output);
+                return output;
+            }
+
+            if (!entry.attributesValid) {
+                transformAttributes(entry.vertices, null);
+                entry.attributesValid = true;
+            }
+            if (!entry.clipValid || !entry.projectionView.equals(this.projectionView)) {
+                transformClip(entry.vertices);
+                entry.projectionView.set(this.projectionView);
+                entry.clipValid = true;
+            }
+            return entry.vertices;
+        }
+
+        private int numberOfVertexChunks() {
+            int numberOfVertices = this.mesh.getNumberOfVertices();
+            return (numberOfVertices + (VERTICES_PER_CHUNK - 1)) / VERTICES_PER_CHUNK;
+        }
+
+        private int lastVertex(int first) {
+            return Math.min(first + VERTICES_PER_CHUNK, this.mesh.getNumberOfVertices());
+        }
+
+        //the attributes the layout keeps after the clip position (world position, uv, world normal and color),
+        //they only depend on the mesh and the model
+        private void transformAttributes(float[] output, boolean[] used) {
+            this.chunkOutput = output;
+            this.chunkUsed = used;
+            forEachChunk(numberOfVertexChunks(), this.attributesChunk);
+        }
+
+        private void attributesChunk(int chunk) {
+            int first = chunk * VERTICES_PER_CHUNK;
+            transformAttributes(this.chunkOutput, this.chunkUsed, first, lastVertex(first));
+        }
+
+        private void transformAttributes(float[] output, boolean[] used, int first, int last) {
+            Mesh.Columns columns = columns(first, last, true);
+            int base = (columns == this.columns ? 0 : first);
+            VertexLayout layout = this.layout;
+            int size = layout.size;
+            int[] offsets = layout.offsets;
+
+            //whole vectors of vertices (used or not), the rest is scalar
+            if (this.vectorized) {
+                first = VectorVertices.transformAttributes(columns, base, this.model, this.normalModel, layout, output, first, last);
+            }
+
+            WorkerScratch scratch = SCRATCH.get();
+            Vector4f pos = scratch.vertexPosition;
+            Vector3f normal = scratch.vertexNormal;
+            for (int i = first; i < last; i++) {
+                if (used != null && !used[i]) {
+                    continue;
+                }
+                int c = i - base;
+                int vout = i * size;
+
+                if (layout.world) {
+                    pos.set(columns.x[c], columns.y[c], columns.z[c], 1f);
+                    this.model.transform(pos);
+                    output[vout + offsets[X]] = pos.x();
+                    output[vout + offsets[Y]] = pos.y();
+                    output[vout + offsets[Z]] = pos.z();
+                }
+
+                if (layout.uvs) {
+                    output[vout + offsets[U]] = columns.u[c];
+                    output[vout + offsets[V]] = columns.v[c];
+                }
+
+                if (layout.normals) {
+                    normal.set(columns.nx[c], columns.ny[c], columns.nz[c]);
+                    this.normalModel.transform(normal).normalize();
+                    output[vout + offsets[NX]] = normal.x();
+                    output[vout + offsets[NY]] = normal.y();
+                    output[vout + offsets[NZ]] = normal.z();
+                }
+
+                if (layout.colors) {
+                    output[vout + offsets[R]] = columns.r[c];
+                    output[vout + offsets[G]] = columns.g[c];
+                    output[vout + offsets[B]] = columns.b[c];
+                    output[vout + offsets[A]] = columns.a[c];
+                }
+            }
+        }
+
+        //the columns of the mesh, or the vertices from first to last of a wrapped array or of a compressed mesh
+        //in the columns of the worker, starting at their first column, compressed meshes only decode their
+        //positions if not every attribute is needed
+        private Mesh.Columns columns(int first, int last, boolean attributes) {
+            if (this.columns != null) {
+                return this.columns;
+            }
+            Mesh.Columns columns = SCRATCH.get().vertexColumns;
+            if (this.packed != null) {
+                this.packed.decode(columns, first, last, attributes);
+            } else {
+                columns.set(this.localVertices, first, last);
+            }
+            return columns;
+        }
+
+        //clip space position from the world position of the local one (models are affine, w is one),
+        //in two steps like the world position, so it is the same with and without a layout that keeps it
+        private void transformClip(float[] output) {
+            this.chunkOutput = output;
+            forEachChunk(numberOfVertexChunks(), this.clipChunk);
+        }
+
+        private void clipChunk(int chunk) {
+            int first = chunk * VERTICES_PER_CHUNK;
+            transformClip(this.chunkOutput, first, lastVertex(first));
+        }
+
+        private void transformClip(float[] output, int first, int last) {
+            int size = this.layout.size;
+            boolean[] used = this.usedVertices;
+            Vector4f pos = SCRATCH.get().vertexPosition;
+
+            Mesh.Columns columns = columns(first, last, false);
+            int base = (columns == this.columns ? 0 : first);
+            if (this.vectorized) {
+                first = VectorVertices.transformClip(columns, base, this.model, this.projectionView, output, size, first, last);
+            }
+
+            for (int i = first; i < last; i++) {
+                if (used != null && !used[i]) {
+                    continue;
+                }
+                int c = i - base;
+                pos.set(columns.x[c], columns.y[c], columns.z[c], 1f);
+                this.model.transform(pos);
+                this.projectionView.transform(pos);
+                int vout = i * size;
+                output[vout + CX] = pos.x();
+                output[vout + CY] = pos.y();
+                output[vout + CZ] = pos.z();
+                output[vout + CW] = pos.w();
+            }
+        }
+
+        //the mesh bounds against the frustum planes in local space, transforms nothing
+        private int frustumTest() {
+            return this.mesh.intersectFrustum(this.frustum.set(this.matrix.set(this.projectionView).mul(this.model)));
+        }
+
+        //back faces and triangles without area are rejected in local space with the face planes
+        //and the eye before any vertex is transformed, the vertices of the front faces are marked as used
+        private void cullFaces() {
+            Matrix4f projectionViewModel = this.matrix.set(this.projectionView).mul(this.model);
+
+            //the eye in local space (a direction for orthographic projections), on the side the front faces are
+            float side = Math.signum(projectionViewModel.determinant());
+            Vector4f localEye = projectionViewModel.invert().transform(this.eye.set(0f, 0f, side, 0f));
+            this.eyeX = localEye.x();
+            this.eyeY = localEye.y();
+            this.eyeZ = localEye.z();
+            this.eyeW = localEye.w();
+
+            int numberOfVertices = this.mesh.getNumberOfVertices();
+            if (this.frontFaces.length < this.numberOfTriangles) {
+                this.frontFaces = new boolean[this.numberOfTriangles];
+            }
+            if (this.usedVertices.length < numberOfVertices) {
+                this.usedVertices = new boolean[numberOfVertices];
+            }
+            Arrays.fill(this.frontFaces, 0, this.numberOfTriangles, false);
+            Arrays.fill(this.usedVertices, 0, numberOfVertices, false);
+
+            forEachChunk(numberOfTriangleChunks(), this.cullChunk);
+        }
+
+        private int numberOfTriangleChunks() {
+            return (this.numberOfTriangles + (TRIANGLES_PER_CHUNK - 1)) / TRIANGLES_PER_CHUNK;
+        }
+
+        private void cullChunk(int chunk) {
+            float[] facePlanes = this.mesh.getFacePlanes();
+            boolean[] front = this.frontFaces;
+            boolean[] used = this.usedVertices;
+            float x = this.eyeX;
+            float y = this.eyeY;
+            float z = this.eyeZ;
+            float w = this.eyeW;
+
+            int first = chunk * TRIANGLES_PER_CHUNK;
+            int last = Math.min(first + TRIANGLES_PER_CHUNK, this.numberOfTriangles);
+            for (int i = first; i < last; i++) {
+                float distance = (facePlanes[(i * 4) + 0] * x)
+                        + (facePlanes[(i * 4) + 1] * y)
+                        + (facePlanes[(i * 4) + 2] * z)
+                        + (facePlanes[(i * 4) + 3] * w);
+                if (!(distance > 0f)) {
+                    continue;
+                }
+                front[i] = true;
+                //chunks may share vertices, they all only ever write true
+                if (this.indices != null) {
+                    used[this.indices[(i * 3) + 0]] = true;
+                    used[this.indices[(i * 3) + 1]] = true;
+                    used[this.indices[(i * 3) + 2]] = true;
+                } else {
+                    used[(i * 3) + 0] = true;
+                    used[(i * 3) + 1] = true;
+                    used[(i * 3) + 2] = true;
+                }
+            }
+        }
+
+        //transforms and clips the mesh of the renderer into getOutput(), returns the length of the output
+        public int transformAndClip(VertexLayout layout) {
+            set(layout);
+
+            //culled draws return nothing, meshes fully inside the frustum have no triangles to clip
+            if (this.frustumCulling) {
+                int result = frustumTest();
+                if (result == FrustumIntersection.OUTSIDE) {
+                    this.mesh = null;
+                    return 0;
+                }
+                this.clipping = (result != FrustumIntersection.INSIDE);
+            }
+
+            cullFaces();
+
+            //every unique vertex of a front face was transformed once, triangles read them by index
+            this.tverts = transformVertices();
+
+            //each chunk of triangles is clipped into its own stream, the streams are joined in order
+            int numberOfStreams = numberOfTriangleChunks();
+            if (this.streams.length < numberOfStreams) {
+                ClipStream[] grown = Arrays.copyOf(this.streams, numberOfStreams);
+                for (int i = this.streams.length; i < grown.length; i++) {
+                    grown[i] = new ClipStream();
+                }
+                this.streams = grown;
+            }
+            forEachChunk(numberOfStreams, this.trianglesChunk);
+
+            int length = 0;
+            for (int i = 0; i < numberOfStreams; i++) {
+                length += this.streams[i].verticesIndex;
+            }
+            if ((length / this.layout.size) % 3 != 0) {
+                throw new IllegalArgumentException("The stream does not contains triangles. (The number of vertices cannot be divided by 3)");
+            }
+
+            if (this.output.length < length) {
+                this.output = new float[length];
+            }
+            int outputIndex = 0;
+            for (int i = 0; i < numberOfStreams; i++) {
+                ClipStream stream = this.streams[i];
+                System.arraycopy(stream.vertices, 0, this.output, outputIndex, stream.verticesIndex);
+                outputIndex += stream.verticesIndex;
+            }
+
+            this.mesh = null;
+            this.tverts = null;
+            this.chunkOutput = null;
+            return length;
+        }
+
+        //the vertices of the last draw, only valid up to the length returned by transformAndClip
+        public float[] getOutput() {
+            return this.output;
+        }
+
+        private void trianglesChunk(int chunk) {
+            int first = chunk * TRIANGLES_PER_CHUNK;
+            int last = Math.min(first + TRIANGLES_PER_CHUNK, this.numberOfTriangles);
+            ClipStream stream = this.streams[chunk];
+            stream.reset(this.layout);
+            stream.clipTriangles(first, last, SCRATCH.get());
+            stream.prepareForRasterization();
+        }
+
+        //runs the chunks on the workers if there is more than one, chunks must only write to their own outputs
+        private void forEachChunk(int numberOfChunks, IntConsumer body) {
+            this.numberOfChunks = numberOfChunks;
+            this.chunkBody = body;
+            this.nextChunk.set(0);
+            if (numberOfChunks <= 1 || !this.multithread || !WORKERS.run(this.chunksJob)) {
+                runChunks();
+            }
+        }
+
+        private void runChunks() {
+            int chunk;
+            while ((chunk = this.nextChunk.getAndIncrement()) < this.numberOfChunks) {
+                this.chunkBody.accept(chunk);
+            }
+        }
+
+        private boolean ccw(float[] verts, int v0, int v1, int v2) {
+            float v0invcw = 1f / verts[v0 + CW];
+            float v1invcw = 1f / verts[v1 + CW];
+            float v2invcw = 1f / verts[v2 + CW];
+
+            float v0cxw = verts[v0 + CX] * v0invcw;
+            float v0cyw = verts[v0 + CY] * v0invcw;
+
+            float v1cxw = verts[v1 + CX] * v1invcw;
+            float v1cyw = verts[v1 + CY] * v1invcw;
+
+            float v2cxw = verts[v2 + CX] * v2invcw;
+            float v2cyw = verts[v2 + CY] * v2invcw;
+
+            float ccw = (v1cxw - v0cxw) * (v2cyw - v0cyw) - (v2cxw - v0cxw) * (v1cyw - v0cyw);
+            return ccw > 0f;
+        }
+
+        private int outcode(int v) {
+            float cx = this.tverts[v + CX];
+            float cy = this.tverts[v + CY];
+            float cz = this.tverts[v + CZ];
+            float cw = this.tverts[v + CW];
+
+            int code = 0;
+            if (cx < -cw) {
+                code |= OUTSIDE_LEFT;
+            }
+            if (cx > cw) {
+                code |= OUTSIDE_RIGHT;
+            }
+            if (cy < -cw) {
+                code |= OUTSIDE_BOTTOM;
+            }
+            if (cy > cw) {
+                code |= OUTSIDE_TOP;
+            }
+            if (cz < -cw) {
+                code |= OUTSIDE_NEAR;
+            }
+            if (cz > cw) {
+                code |= OUTSIDE_FAR;
+            }
+            float guardBand = cw * GUARD_BAND;
+            if (cx < -guardBand || cx > guardBand || cy < -guardBand || cy > guardBand) {
+                code |= OUTSIDE_GUARD_BAND;
+            }
+            return code;
+        }
+
+        //the output of a chunk of triangles, in the layout of the draw, reused by every draw
+        private class ClipStream {
+
+            private int size;
+            private float[] vertices = new float[VERTEX_SIZE * 64];
+            private int verticesIndex = 0;
+
+            public void reset(VertexLayout layout) {
+                this.size = layout.size;
+                this.verticesIndex = 0;
+            }
+
+            public void clipTriangles(int first, int last, WorkerScratch scratch) {
+                int[] triangleIndices = VertexTransformer.this.indices;
+                boolean[] front = VertexTransformer.this.frontFaces;
+                float[] verts = VertexTransformer.this.tverts;
+                int size = this.size;
+                for (int i = first; i < last; i++) {
+                    if (!front[i]) {
+                        continue;
+                    }
+
+                    int v0;
+                    int v1;
+                    int v2;
+                    if (triangleIndices != null) {
+                        v0 = triangleIndices[(i * 3) + 0] * size;
+                        v1 = triangleIndices[(i * 3) + 1] * size;
+                        v2 = triangleIndices[(i * 3) + 2] * size;
+                    } else {
+                        v0 = i * (size * 3);
+                        v1 = v0 + size;
+                        v2 = v1 + size;
+                    }
+
+                    if (VertexTransformer.this.clipping) {
+                        int code0 = outcode(v0);
+                        int code1 = outcode(v1);
+                        int code2 = outcode(v2);
+                        if ((code0 & code1 & code2 & ~OUTSIDE_GUARD_BAND) != 0) {
+                            //every vertex is outside of the same plane
+                            continue;
+                        }
+                        int codes = code0 | code1 | code2;
+                        if ((codes & MUST_CLIP) != 0) {
+                            //the sides of the view only need to be clipped outside of the guard band
+                            int planes = codes & (OUTSIDE_NEAR | OUTSIDE_FAR);
+                            if ((codes & OUTSIDE_GUARD_BAND) != 0) {
+                                planes = codes & ~OUTSIDE_GUARD_BAND;
+                            }
+                            clip(v0, v1, v2, planes, scratch);
+                            continue;
+                        }
+                    }
+
+                    if (!ccw(verts, v0, v1, v2)) {
+                        continue;
+                    }
+
+                    vertex(v0);
+                    vertex(v1);
+                    vertex(v2);
+                }
+            }
+
+            //clips the triangle against the given planes in the scratch polygon and writes its fan to the stream
+            private void clip(int v0, int v1, int v2, int planes, WorkerScratch scratch) {
+                //https://read.cash/@Metalhead33/software-renderer-4-complex-shapes-z-buffers-alpha-blending-perspective-correction-cameras-c1ebfd00
+
+                int size = this.size;
+                float[] verts = VertexTransformer.this.tverts;
+                System.arraycopy(verts, v0, scratch.clipVertices, 0 * size, size);
+                System.arraycopy(verts, v1, scratch.clipVertices, 1 * size, size);
+                System.arraycopy(verts, v2, scratch.clipVertices, 2 * size, size);
+                int numberOfVertices = 3;
+
+                int[] inputList = scratch.clipInput;
+                int inputListIndex = 0;
+                int[] outputList = scratch.clipOutput;
+                int outputListIndex = 0;
+
+                inputList[0] = 0;
+                inputList[1] = 1;
+                inputList[2] = 2;
+                inputListIndex += 3;
+
+                for (int plane = 0; plane < VertexTransformer.clippingEdges.length; plane++) {
+                    if (inputListIndex < 3) {
+                        return;
+                    }
+                    if ((planes & (1 << plane)) == 0) {
+                        continue;
+                    }
+                    Vector4f clippingEdge = VertexTransformer.clippingEdges[plane];
+
+                    //a plane can at most double the polygon
+                    if ((inputListIndex * 2) + 1 > outputList.length) {
+                        scratch.clipInput = inputList = Arrays.copyOf(inputList, (inputListIndex * 2) + 1);
+                        scratch.clipOutput = outputList = Arrays.copyOf(outputList, (inputListIndex * 2) + 1);
+                    }
+                    if ((numberOfVertices + inputListIndex) * size > scratch.clipVertices.length) {
+                        scratch.clipVertices = Arrays.copyOf(scratch.clipVertices, (numberOfVertices + inputListIndex) * size * 2);
+                    }
+                    float[] polygon = scratch.clipVertices;
+
+                    outputListIndex = 0;
+                    int idxPrev = inputList[0];
+                    inputList[inputListIndex] = idxPrev;
+                    inputListIndex++;
+                    float dpPrev = calculateDp(clippingEdge, polygon, idxPrev);
+                    for (int j = 1; j < inputListIndex; ++j) {
+                        int idx = inputList[j];
+                        float dp = calculateDp(clippingEdge, polygon, idx);
+
+                        if (dpPrev >= 0) {
+                            outputList[outputListIndex] = idxPrev;
+                            outputListIndex++;
+                        }
+
+                        if (Math.signum(dp) != Math.signum(dpPrev)) {
+                            //always from the inside vertex, so an edge shared by two triangles is cut at the same point in both
+                            int idxIn = (dp > dpPrev ? idx : idxPrev);
+                            int idxOut = (dp > dpPrev ? idxPrev : idx);
+                            float dpIn = Math.max(dp, dpPrev);
+                            float dpOut = Math.min(dp, dpPrev);
+                            float t = dpIn / (dpIn - dpOut);
+                            interpolateVertex(polygon, idxIn, idxOut, numberOfVertices, 1f - t, t);
+                            outputList[outputListIndex] = numberOfVertices;
+                            outputListIndex++;
+                            numberOfVertices++;
+                        }
+
+                        idxPrev = idx;
+                        dpPrev = dp;
+                    }
+                    int[] e = inputList;
+
+                    inputListIndex = outputListIndex;
+                    inputList = outputList;
+                    outputList = e;
+                }
+
+                if (inputListIndex < 3) {
+                    return;
+                }
+
+                float[] polygon = scratch.clipVertices;
+                for (int j = 2; j < inputListIndex; j++) {
+                    int p0 = inputList[0] * size;
+                    int p1 = inputList[j - 1] * size;
+                    int p2 = inputList[j] * size;
+
+                    if (!ccw(polygon, p0, p1, p2)) {
+                        continue;
+                    }
+
+                    vertex(polygon, p0);
+                    vertex(polygon, p1);
+                    vertex(polygon, p2);
+                }
+            }
+
+            private float calculateDp(Vector4fc clippingEdge, float[] polygon, int vi) {
+                vi *= this.size;
+                float cx = polygon[vi + CX];
+                float cy = polygon[vi + CY];
+                float cz = polygon[vi + CZ];
+                float cw = polygon[vi + CW];
+                return (clippingEdge.x() * cx)
+                        + (clippingEdge.y() * cy)
+                        + (clippingEdge.z() * cz)
+                        + (clippingEdge.w() * cw);
+            }
+
+            private void prepareForRasterization() {
+                float[] vertices = this.vertices;
+                for (int v = 0; v < this.verticesIndex; v += this.size) {
+                    float cwinv = 1f / vertices[v + CW_INV];
+                    for (int i = 0; i < this.size; i++) {
+                        vertices[v + i] = vertices[v + i] * cwinv;
+                    }
+                    for (int i = CX; i <= CZ; i++) {
+                        vertices[v + i] = (vertices[v + i] + 1.0f) * 0.5f;
+                    }
+                    vertices[v + CX] = vertices[v + CX] * VertexTransformer.this.width;
+                    vertices[v + CY] = vertices[v + CY] * VertexTransformer.this.height;
+                    vertices[v + CW_INV] = cwinv;
+                }
+            }
+
+            private void interpolateVertex(float[] polygon, int vai, int vbi, int vout, float w0, float w1) {
+                vai *= this.size;
+                vbi *= this.size;
+                vout *= this.size;
+                for (int i = 0; i < this.size; i++) {
+                    polygon[vout + i] = (polygon[vai + i] * w0) + (polygon[vbi + i] * w1);
+                }
+            }
+
+            private void vertex(int v) {
+                vertex(VertexTransformer.this.tverts, v);
+            }
+
+            private void vertex(float[] polygon, int p) {
+                if ((this.verticesIndex + this.size) > this.vertices.length) {
+                    this.vertices = Arrays.copyOf(this.vertices, (this.vertices.length * 2) + this.size);
+                }
+
+                System.arraycopy(polygon, p, this.vertices, this.verticesIndex, this.size);
+
+                this.verticesIndex += this.size;
+            }
+        }
+    }
+
+    //light
+    public static interface Light {
+
+        public Vector3f getDiffuseColor();
+
+        public Vector3f getAmbientColor();
+
+        public Vector3f getPosition();
+
+        public void calculateDiffuseAmbientFactors(float x, float y, float z, float nx, float ny, float nz, float[] diffuseAmbientFactors, int offset);
+    }
+
+    //point light
+    public static class PointLight implements Light {
+
+        private final Vector3f diffuseColor = new Vector3f(0.8f, 0.8f, 0.8f);
+        private final Vector3f ambientColor = new Vector3f(0.3f, 0.3f, 0.3f);
+        private final Vector3f position = new Vector3f(0f, 0f, 0f);
+
+        public PointLight() {
+
+        }
+
+        @Override
+        public Vector3f getDiffuseColor() {
+            return this.diffuseColor;
+        }
+
+        @Override
+        public Vector3f getAmbientColor() {
+            return this.ambientColor;
+        }
+
+        @Override
+        public Vector3f getPosition() {
+            return this.position;
+        }
+
+        @Override
+        public void calculateDiffuseAmbientFactors(float x, float y, float z, float nx, float ny, float nz, float[] diffuseAmbientFactors, int offset) {
+            float lightDirX = this.position.x() - x;
+            float lightDirY = this.position.y() - y;
+            float lightDirZ = this.position.z() - z;
+            float lightDirLengthInverse = (float) (1.0 / Math.sqrt((lightDirX * lightDirX) + (lightDirY * lightDirY) + (lightDirZ * lightDirZ)));
+            lightDirX *= lightDirLengthInverse;
+            lightDirY *= lightDirLengthInverse;
+            lightDirZ *= lightDirLengthInverse;
+            diffuseAmbientFactors[offset + 0] = Math.max((lightDirX * nx) + (lightDirY * ny) + (lightDirZ * nz), 0f) * lightDirLengthInverse;
+            diffuseAmbientFactors[offset + 1] = lightDirLengthInverse;
+        }
+
+    }
+
+    //spot light
+    public static class SpotLight extends PointLight {
+
+        private static final float cutOffAmbientCosRad = (float) Math.cos(Math.toRadians(160f));
+        private static final float outerCutOffAmbientCosRad = (float) Math.cos(Math.toRadians(180f));
+
+        private final Vector3f direction = new Vector3f(0f, -1f, 0f);
+        private float cutOff = 10f;
+        private float outerCutOff = 45f;
+
+        private float cutOffCosRad = (float) Math.cos(Math.toRadians(this.cutOff));
+        private float outerCutOffCosRad = (float) Math.cos(Math.toRadians(this.outerCutOff));
+
+        public SpotLight() {
+
+        }
+
+        public Vector3f getDirection() {
+            return direction;
+        }
+
+        public float getCutOff() {
+            return cutOff;
+        }
+
+        public float getOuterCutOff() {
+            return outerCutOff;
+        }
+
+        public void setCutOff(float cutOff) {
+            this.cutOff = cutOff;
+            this.cutOffCosRad = (float) Math.cos(Math.toRadians(this.cutOff));
+        }
+
+        public void setOuterCutOff(float outerCutOff) {
+            this.outerCutOff = outerCutOff;
+            this.outerCutOffCosRad = (float) Math.cos(Math.toRadians(this.outerCutOff));
+        }
+
+        @Override
+        public void calculateDiffuseAmbientFactors(float x, float y, float z, float nx, float ny, float nz, float[] diffuseAmbientFactors, int offset) {
+            float lightDirX = getPosition().x() - x;
+            float lightDirY = getPosition().y() - y;
+            float lightDirZ = getPosition().z() - z;
+            float lightDirLengthInverse = (float) (1.0 / Math.sqrt((lightDirX * lightDirX) + (lightDirY * lightDirY) + (lightDirZ * lightDirZ)));
+            lightDirX *= lightDirLengthInverse;
+            lightDirY *= lightDirLengthInverse;
+            lightDirZ *= lightDirLengthInverse;
+
+            float theta = (lightDirX * -this.direction.x()) + (lightDirY * -this.direction.y()) + (lightDirZ * -this.direction.z());
+
+            float epsilonDiffuse = this.cutOffCosRad - this.outerCutOffCosRad;
+            float intensityDiffuse = Math.min(Math.max((theta - this.outerCutOffCosRad) / epsilonDiffuse, 0.0f), 1.0f);
+
+            float epsilonAmbient = SpotLight.cutOffAmbientCosRad - SpotLight.outerCutOffAmbientCosRad;
+            float intensityAmbient = Math.min(Math.max((theta - SpotLight.outerCutOffAmbientCosRad) / epsilonAmbient, 0.0f), 1.0f);
+
+            diffuseAmbientFactors[offset + 0] = Math.max((lightDirX * nx) + (lightDirY * ny) + (lightDirZ * nz), 0f) * lightDirLengthInverse * intensityDiffuse;
+            diffuseAmbientFactors[offset + 1] = lightDirLengthInverse * intensityAmbient;
+        }
+
+    }
+
+    //rasterizer workers
+    private static class WorkerPool {
+
+        private final Thread[] threads;
+        private final Object lock = new Object();
+
+        private Runnable job = null;
+        private long generation = 0;
+        private int running = 0;
+        private boolean busy = false;
+        private Throwable failure = null;
+
+        public WorkerPool(int numberOfThreads) {
+            this.threads = new Thread[numberOfThreads];
+            for (int i = 0; i < this.threads.length; i++) {
+                this.threads[i] = new Thread(this::workerLoop, "Rasterizer-Worker-" + i);
+                this.threads[i].setDaemon(true);
+                this.threads[i].start();
+            }
+        }
+
+        private void workerLoop() {
+            long seenGeneration = 0;
+            while (true) {
+                Runnable currentJob;
+                synchronized (this.lock) {
+                    while (this.generation == seenGeneration) {
+                        try {
+                            this.lock.wait();
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                    }
+                    seenGeneration = this.generation;
+                    currentJob = this.job;
+                }
+
+                Throwable jobFailure = null;
+                try {
+                    currentJob.run();
+                } catch (Throwable t) {
+                    jobFailure = t;
+                }
+
+                synchronized (this.lock) {
+                    if (jobFailure != null && this.failure == null) {
+                        this.failure = jobFailure;
+                    }
+                    this.running--;
+                    if (this.running == 0) {
+                        this.lock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        //runs the job on the calling thread and on every worker and waits for all of them,
+        //returns false without running anything if there are no workers or if they are busy with another job
+        public boolean run(Runnable job) {
+            synchronized (this.lock) {
+                if (this.threads.length == 0 || this.busy) {
+                    return false;
+                }
+                this.busy = true;
+                this.job = job;
+                this.failure = null;
+                this.running = this.threads.length;
+                this.generation++;
+                this.lock.notifyAll();
+            }
+
+            Throwable jobFailure = null;
+            try {
+                job.run();
+            } catch (Throwable t) {
+                jobFailure = t;
+            }
+
+            boolean interrupted = false;
+            synchronized (this.lock) {
+                while (this.running != 0) {
+                    try {
+                        this.lock.wait();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+                if (jobFailure == null) {
+                    jobFailure = this.failure;
+                }
+                this.job = null;
+                this.failure = null;
+                this.busy = false;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (jobFailure != null) {
+                throw new RuntimeException(jobFailure);
+            }
+            return true;
+        }
+    }
+
+    private static final WorkerPool WORKERS = new WorkerPool(Runtime.getRuntime().availableProcessors() - 1);
+
+    //scratch memory owned by each thread that rasterizes tiles
+    private static class WorkerScratch {
+
+        private final float[] textureColor = new float[4];
+        private final float[] diffuseAmbientFactors = new float[2];
+        private final float[] lightColor = new float[3];
+
+        //per pixel values of a vectorized span, the widest vector has as many lanes as a tile has pixels in a row
+        private final float[] spanW = new float[TILE_SIZE];
+        private final float[] spanR = new float[TILE_SIZE];
+        private final float[] spanG = new float[TILE_SIZE];
+        private final float[] spanB = new float[TILE_SIZE];
+        private final float[] spanA = new float[TILE_SIZE];
+        private final float[] spanU = new float[TILE_SIZE];
+        private final float[] spanV = new float[TILE_SIZE];
+        private final float[] spanX = new float[TILE_SIZE];
+        private final float[] spanY = new float[TILE_SIZE];
+        private final float[] spanZ = new float[TILE_SIZE];
+        private final float[] spanNX = new float[TILE_SIZE];
+        private final float[] spanNY = new float[TILE_SIZE];
+        private final float[] spanNZ = new float[TILE_SIZE];
+        private final float[] spanLightR = new float[TILE_SIZE];
+        private final float[] spanLightG = new float[TILE_SIZE];
+        private final float[] spanLightB = new float[TILE_SIZE];
+        private final float[] spanDstR = new float[TILE_SIZE];
+        private final float[] spanDstG = new float[TILE_SIZE];
+        private final float[] spanDstB = new float[TILE_SIZE];
+        private final float[] spanDstA = new float[TILE_SIZE];
+        private final float[] spanDepth = new float[TILE_SIZE];
+
+        //polygon clipper, the vertices of the polygon and its input and output lists for a plane,
+        //a triangle clipped by the six planes has at most nine vertices and fifteen were ever created
+        private float[] clipVertices = new float[VERTEX_SIZE * 16];
+        private int[] clipInput = new int[16];
+        private int[] clipOutput = new int[16];
+
+        //multisampled spans, the pixels that passed the depth test and their depths for each sample
+        private final long[] sampleMasks = new long[4];
+        private final float[] sampleDepths = new float[TILE_SIZE * 4];
+
+        //vertex stage, the vertex being transformed, the normal decoded from a compressed mesh
+        //and a chunk of a wrapped array or of a compressed mesh as columns
+        private final Mesh.Columns vertexColumns = new Mesh.Columns(VertexTransformer.VERTICES_PER_CHUNK, true);
+        private final Vector4f vertexPosition = new Vector4f();
+        private final Vector3f vertexNormal = new Vector3f();
+        private final float[] decodedNormal = new float[3];
+    }
+
+    private static final ThreadLocal<WorkerScratch> SCRATCH = ThreadLocal.withInitial(WorkerScratch::new);
+
+    //span stages, the rasterizer picks one of each kind for every draw from the render state,
+    //the state is copied into the stage before the draw and into locals by the loops, so the
+    //per pixel code has no state checks and every call in it has a single receiver type,
+    //pixels are bits of a long (a span is never wider than a tile) indexing the span arrays
+    private static abstract class TextureStage {
+
+        public abstract void sample(long pixels, WorkerScratch scratch);
+    }
+
+    private static final class NoTextureStage extends TextureStage {
+
+        @Override
+        public void sample(long pixels, WorkerScratch scratch) {
+
+        }
+    }
+
+    private static final class NearestTextureStage extends TextureStage {
+
+        private Texture texture;
+
+        @Override
+        public void sample(long pixels, WorkerScratch scratch) {
+            final Texture tex = this.texture;
+            final float[] spanR = scratch.spanR;
+            final float[] spanG = scratch.spanG;
+            final float[] spanB = scratch.spanB;
+            final float[] spanA = scratch.spanA;
+            final float[] spanU = scratch.spanU;
+            final float[] spanV = scratch.spanV;
+            final float[] textureColor = scratch.textureColor;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                tex.sampleNearest(spanU[i], spanV[i], textureColor, 0);
+                spanR[i] *= textureColor[0];
+                spanG[i] *= textureColor[1];
+                spanB[i] *= textureColor[2];
+                spanA[i] *= textureColor[3];
+            }
+        }
+    }
+
+    private static final class BilinearTextureStage extends TextureStage {
+
+        private Texture texture;
+
+        @Override
+        public void sample(long pixels, WorkerScratch scratch) {
+            final Texture tex = this.texture;
+            final float[] spanR = scratch.spanR;
+            final float[] spanG = scratch.spanG;
+            final float[] spanB = scratch.spanB;
+            final float[] spanA = scratch.spanA;
+            final float[] spanU = scratch.spanU;
+            final float[] spanV = scratch.spanV;
+            final float[] textureColor = scratch.textureColor;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                tex.sampleBilinear(spanU[i], spanV[i], textureColor, 0);
+                spanR[i] *= textureColor[0];
+                spanG[i] *= textureColor[1];
+                spanB[i] *= textureColor[2];
+                spanA[i] *= textureColor[3];
+            }
+        }
+    }
+
+    private static final class NearestFloatTextureStage extends TextureStage {
+
+        private FloatTexture texture;
+
+        @Override
+        public void sample(long pixels, WorkerScratch scratch) {
+            final FloatTexture tex = this.texture;
+            final float[] spanR = scratch.spanR;
+            final float[] spanG = scratch.spanG;
+            final float[] spanB = scratch.spanB;
+            final float[] spanA = scratch.spanA;
+            final float[] spanU = scratch.spanU;
+            final float[] spanV = scratch.spanV;
+            final float[] textureColor = scratch.textureColor;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                tex.sampleNearest(spanU[i], spanV[i], textureColor, 0);
+                spanR[i] *= textureColor[0];
+                spanG[i] *= textureColor[1];
+                spanB[i] *= textureColor[2];
+                spanA[i] *= textureColor[3];
+            }
+        }
+    }
+
+    private static final class BilinearFloatTextureStage extends TextureStage {
+
+        private FloatTexture texture;
+
+        @Override
+        public void sample(long pixels, WorkerScratch scratch) {
+            final FloatTexture tex = this.texture;
+            final float[] spanR = scratch.spanR;
+            final float[] spanG = scratch.spanG;
+            final float[] spanB = scratch.spanB;
+            final float[] spanA = scratch.spanA;
+            final float[] spanU = scratch.spanU;
+            final float[] spanV = scratch.spanV;
+            final float[] textureColor = scratch.textureColor;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                tex.sampleBilinear(spanU[i], spanV[i], textureColor, 0);
+                spanR[i] *= textureColor[0];
+                spanG[i] *= textureColor[1];
+                spanB[i] *= textureColor[2];
+                spanA[i] *= textureColor[3];
+            }
+        }
+    }
+
+    //writes the final color of the pixels to the span color arrays, pixelIndex is the first pixel of the span
+    private static abstract class LightingStage {
+
+        public abstract void shade(long pixels, int pixelIndex, WorkerScratch scratch);
+    }
+
+    private static final class UnlitStage extends LightingStage {
+
+        @Override
+        public void shade(long pixels, int pixelIndex, WorkerScratch scratch) {
+
+        }
+    }
+
+    //unlit pixels over a g-buffer must not be lit by the lighting pass
+    private static final class ClearGBufferStage extends LightingStage {
+
+        private float[] normalBuffer;
+
+        @Override
+        public void shade(long pixels, int pixelIndex, WorkerScratch scratch) {
+            final float[] normals = this.normalBuffer;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                normals[(pixelIndex + Long.numberOfTrailingZeros(bits)) * 3] = Float.NaN;
+            }
+        }
+    }
+
+    //lit later by the lighting pass
+    private static final class DeferredStage extends LightingStage {
+
+        private float[] normalBuffer;
+        private float[] positionBuffer;
+
+        @Override
+        public void shade(long pixels, int pixelIndex, WorkerScratch scratch) {
+            final float[] spanNX = scratch.spanNX;
+            final float[] spanNY = scratch.spanNY;
+            final float[] spanNZ = scratch.spanNZ;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+
+                //w cancels out in the normalization
+                float nx = spanNX[i];
+                float ny = spanNY[i];
+                float nz = spanNZ[i];
+                float lengthinv = 1f / (float) Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+
+                spanNX[i] = nx * lengthinv;
+                spanNY[i] = ny * lengthinv;
+                spanNZ[i] = nz * lengthinv;
+            }
+            write(pixels, pixelIndex, scratch);
+        }
+
+        //writes the normalized normals and the positions of the spans
+        public void write(long pixels, int pixelIndex, WorkerScratch scratch) {
+            final float[] normals = this.normalBuffer;
+            final float[] positions = this.positionBuffer;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                int index = (pixelIndex + i) * 3;
+                normals[index + 0] = scratch.spanNX[i];
+                normals[index + 1] = scratch.spanNY[i];
+                normals[index + 2] = scratch.spanNZ[i];
+                positions[index + 0] = scratch.spanX[i];
+                positions[index + 1] = scratch.spanY[i];
+                positions[index + 2] = scratch.spanZ[i];
+            }
+        }
+    }
+
+    private static final class LitStage extends LightingStage {
+
+        private boolean sun;
+        private float sunX;
+        private float sunY;
+        private float sunZ;
+        private float sunDiffuseR;
+        private float sunDiffuseG;
+        private float sunDiffuseB;
+        private float sunAmbientR;
+        private float sunAmbientG;
+        private float sunAmbientB;
+
+        //diffuse rgb and ambient rgb of each light
+        private Light[] lights = new Light[0];
+        private float[] lightColors = new float[0];
+        private int numberOfLights;
+
+        public void set(SoftwareRenderer renderer) {
+            this.sun = renderer.sunEnabled;
+            //pointing to the sun
+            this.sunX = -renderer.sunDirection.x();
+            this.sunY = -renderer.sunDirection.y();
+            this.sunZ = -renderer.sunDirection.z();
+            this.sunDiffuseR = renderer.sunDiffuse.x();
+            this.sunDiffuseG = renderer.sunDiffuse.y();
+            this.sunDiffuseB = renderer.sunDiffuse.z();
+            this.sunAmbientR = renderer.sunAmbient.x();
+            this.sunAmbientG = renderer.sunAmbient.y();
+            this.sunAmbientB = renderer.sunAmbient.z();
+
+            List<Light> list = renderer.lights;
+            if (this.lights.length < list.size()) {
+                this.lights = new Light[list.size()];
+                this.lightColors = new float[list.size() * 6];
+            }
+            int count = 0;
+            for (int i = 0; i < list.size(); i++) {
+                Light light = list.get(i);
+                if (light == null) {
+                    continue;
+                }
+                this.lights[count] = light;
+                this.lightColors[(count * 6) + 0] = light.getDiffuseColor().x();
+                this.lightColors[(count * 6) + 1] = light.getDiffuseColor().y();
+                this.lightColors[(count * 6) + 2] = light.getDiffuseColor().z();
+                this.lightColors[(count * 6) + 3] = light.getAmbientColor().x();
+                this.lightColors[(count * 6) + 4] = light.getAmbientColor().y();
+                this.lightColors[(count * 6) + 5] = light.getAmbientColor().z();
+                count++;
+            }
+            Arrays.fill(this.lights, count, this.lights.length, null);
+            this.numberOfLights = count;
+        }
+
+        //the lighting of a pixel with a normalized normal, used by the scalar spans and the deferred lighting pass,
+        //the vectorized spans do the sun of a whole vector with the same constants and operations
+        //(VectorSpans.light) and then add the lights of each pixel
+        public void light(float cr, float cg, float cb, float x, float y, float z, float nx, float ny, float nz, float[] factors, float[] result) {
+            float r = 0f;
+            float g = 0f;
+            float b = 0f;
+
+            if (this.sun) {
+                r += this.sunAmbientR * cr;
+                g += this.sunAmbientG * cg;
+                b += this.sunAmbientB * cb;
+
+                float diffuse = Math.max((nx * this.sunX) + (ny * this.sunY) + (nz * this.sunZ), 0f);
+
+                r += this.sunDiffuseR * diffuse * cr;
+                g += this.sunDiffuseG * diffuse * cg;
+                b += this.sunDiffuseB * diffuse * cb;
+            }
+
+            result[0] = r;
+            result[1] = g;
+            result[2] = b;
+
+            addLights(cr, cg, cb, x, y, z, nx, ny, nz, factors, result);
+        }
+
+        //adds the lighting of the lights (not the sun) to the result
+        public void addLights(float cr, float cg, float cb, float x, float y, float z, float nx, float ny, float nz, float[] factors, float[] result) {
+            final Light[] lightArray = this.lights;
+            final float[] colors = this.lightColors;
+            final int count = this.numberOfLights;
+
+            float r = result[0];
+            float g = result[1];
+            float b = result[2];
+
+            for (int j = 0; j < count; j++) {
+                lightArray[j].calculateDiffuseAmbientFactors(x, y, z, nx, ny, nz, factors, 0);
+
+                r += factors[0] * colors[(j * 6) + 0] * cr;
+                g += factors[0] * colors[(j * 6) + 1] * cg;
+                b += factors[0] * colors[(j * 6) + 2] * cb;
+
+                r += factors[1] * colors[(j * 6) + 3] * cr;
+                g += factors[1] * colors[(j * 6) + 4] * cg;
+                b += factors[1] * colors[(j * 6) + 5] * cb;
+            }
+
+            result[0] = r;
+            result[1] = g;
+            result[2] = b;
+        }
+
+        @Override
+        public void shade(long pixels, int pixelIndex, WorkerScratch scratch) {
+            final float[] spanR = scratch.spanR;
+            final float[] spanG = scratch.spanG;
+            final float[] spanB = scratch.spanB;
+            final float[] spanX = scratch.spanX;
+            final float[] spanY = scratch.spanY;
+            final float[] spanZ = scratch.spanZ;
+            final float[] spanNX = scratch.spanNX;
+            final float[] spanNY = scratch.spanNY;
+            final float[] spanNZ = scratch.spanNZ;
+            final float[] factors = scratch.diffuseAmbientFactors;
+            final float[] result = scratch.lightColor;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+
+                //w cancels out in the normalization
+                float nx = spanNX[i];
+                float ny = spanNY[i];
+                float nz = spanNZ[i];
+                float lengthinv = 1f / (float) Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+
+                light(
+                        spanR[i], spanG[i], spanB[i],
+                        spanX[i], spanY[i], spanZ[i],
+                        nx * lengthinv, ny * lengthinv, nz * lengthinv,
+                        factors, result
+                );
+
+                spanR[i] = result[0];
+                spanG[i] = result[1];
+                spanB[i] = result[2];
+            }
+        }
+    }
+
+    //the colors to blend come as arrays (lit spans may keep the unlit color in the scratch memory),
+    //alpha and depth are in the span arrays of the scratch memory
+    private static abstract class BlendStage {
+
+        public abstract void blend(float[] surfaceColor, long pixels, int pixelIndex, float[] colorR, float[] colorG, float[] colorB, WorkerScratch scratch);
+    }
+
+    private static final class OpaqueBlendStage extends BlendStage {
+
+        @Override
+        public void blend(float[] surfaceColor, long pixels, int pixelIndex, float[] colorR, float[] colorG, float[] colorB, WorkerScratch scratch) {
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                int index = (pixelIndex + i) * 4;
+                surfaceColor[index + 0] = colorR[i];
+                surfaceColor[index + 1] = colorG[i];
+                surfaceColor[index + 2] = colorB[i];
+                surfaceColor[index + 3] = 1f;
+            }
+        }
+    }
+
+    private static final class AlphaBlendStage extends BlendStage {
+
+        @Override
+        public void blend(float[] surfaceColor, long pixels, int pixelIndex, float[] colorR, float[] colorG, float[] colorB, WorkerScratch scratch) {
+            final float[] colorA = scratch.spanA;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                int index = (pixelIndex + i) * 4;
+
+                float outR = 0.0f, outG = 0.0f, outB = 0.0f, outA;
+                calculateAlpha:
+                {
+                    float srcR = colorR[i], srcG = colorG[i], srcB = colorB[i], srcA = colorA[i];
+                    float dstA = surfaceColor[index + 3];
+                    if (dstA == 1f) {
+                        float dstR = surfaceColor[index + 0];
+                        float dstG = surfaceColor[index + 1];
+                        float dstB = surfaceColor[index + 2];
+                        outR = (srcR * srcA) + (dstR * (1f - srcA));
+                        outG = (srcG * srcA) + (dstG * (1f - srcA));
+                        outB = (srcB * srcA) + (dstB * (1f - srcA));
+                        outA = 1f;
+                        break calculateAlpha;
+                    }
+                    outA = srcA + dstA * (1f - srcA);
+                    if (outA == 0f) {
+                        break calculateAlpha;
+                    }
+                    float dstR = surfaceColor[index + 0];
+                    float dstG = surfaceColor[index + 1];
+                    float dstB = surfaceColor[index + 2];
+                    float invOutA = 1f / outA;
+                    outR = (srcR * srcA + dstR * dstA * (1f - srcA)) * invOutA;
+                    outG = (srcG * srcA + dstG * dstA * (1f - srcA)) * invOutA;
+                    outB = (srcB * srcA + dstB * dstA * (1f - srcA)) * invOutA;
+                }
+                surfaceColor[index + 0] = outR;
+                surfaceColor[index + 1] = outG;
+                surfaceColor[index + 2] = outB;
+                surfaceColor[index + 3] = outA;
+            }
+        }
+    }
+
+    private static final class PremultipliedBlendStage extends BlendStage {
+
+        @Override
+        public void blend(float[] surfaceColor, long pixels, int pixelIndex, float[] colorR, float[] colorG, float[] colorB, WorkerScratch scratch) {
+            final float[] colorA = scratch.spanA;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                int index = (pixelIndex + i) * 4;
+
+                float outR = 0.0f, outG = 0.0f, outB = 0.0f, outA;
+                calculateAlpha:
+                {
+                    float srcR = colorR[i], srcG = colorG[i], srcB = colorB[i], srcA = colorA[i];
+                    float dstA = surfaceColor[index + 3];
+                    if (dstA == 1f) {
+                        float dstR = surfaceColor[index + 0];
+                        float dstG = surfaceColor[index + 1];
+                        float dstB = surfaceColor[index + 2];
+                        outR = srcR + (dstR * (1f - srcA));
+                        outG = srcG + (dstG * (1f - srcA));
+                        outB = srcB + (dstB * (1f - srcA));
+                        outA = 1f;
+                        break calculateAlpha;
+                    }
+                    outA = srcA + dstA * (1f - srcA);
+                    if (outA == 0f) {
+                        break calculateAlpha;
+                    }
+                    float dstR = surfaceColor[index + 0];
+                    float dstG = surfaceColor[index + 1];
+                    float dstB = surfaceColor[index + 2];
+                    float invOutA = 1f / outA;
+                    outR = (srcR + dstR * dstA * (1f - srcA)) * invOutA;
+                    outG = (srcG + dstG * dstA * (1f - srcA)) * invOutA;
+                    outB = (srcB + dstB * dstA * (1f - srcA)) * invOutA;
+                }
+                surfaceColor[index + 0] = outR;
+                surfaceColor[index + 1] = outG;
+                surfaceColor[index + 2] = outB;
+                surfaceColor[index + 3] = outA;
+            }
+        }
+    }
+
+    private static final class AdditiveBlendStage extends BlendStage {
+
+        @Override
+        public void blend(float[] surfaceColor, long pixels, int pixelIndex, float[] colorR, float[] colorG, float[] colorB, WorkerScratch scratch) {
+            final float[] colorA = scratch.spanA;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                int index = (pixelIndex + i) * 4;
+
+                float outR = 0.0f, outG = 0.0f, outB = 0.0f, outA;
+                calculateAlpha:
+                {
+                    float srcR = colorR[i], srcG = colorG[i], srcB = colorB[i], srcA = colorA[i];
+                    float dstA = surfaceColor[index + 3];
+                    if (dstA == 1f) {
+                        outR = surfaceColor[index + 0] + (srcR * srcA);
+                        outG = surfaceColor[index + 1] + (srcG * srcA);
+                        outB = surfaceColor[index + 2] + (srcB * srcA);
+                        outA = 1f;
+                        break calculateAlpha;
+                    }
+                    outA = Math.min(srcA + dstA, 1f);
+                    if (outA == 0f) {
+                        break calculateAlpha;
+                    }
+                    float dstR = surfaceColor[index + 0];
+                    float dstG = surfaceColor[index + 1];
+                    float dstB = surfaceColor[index + 2];
+                    float invOutA = 1f / outA;
+                    outR = (srcR * srcA + dstR * dstA) * invOutA;
+                    outG = (srcG * srcA + dstG * dstA) * invOutA;
+                    outB = (srcB * srcA + dstB * dstA) * invOutA;
+                }
+                surfaceColor[index + 0] = outR;
+                surfaceColor[index + 1] = outG;
+                surfaceColor[index + 2] = outB;
+                surfaceColor[index + 3] = outA;
+            }
+        }
+    }
+
+    //weighted blended order independent transparency, the surface color is not touched,
+    //the pixels are accumulated into the transparency planes of the surface and composited later
+    private static final class OrderIndependentBlendStage extends BlendStage {
+
+        private float[] accumulationBuffer;
+        private float[] revealageBuffer;
+
+        @Override
+        public void blend(float[] surfaceColor, long pixels, int pixelIndex, float[] colorR, float[] colorG, float[] colorB, WorkerScratch scratch) {
+            final float[] accumulation = this.accumulationBuffer;
+            final float[] revealage = this.revealageBuffer;
+            final float[] colorA = scratch.spanA;
+            final float[] depth = scratch.spanDepth;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                int index = pixelIndex + i;
+
+                float srcA = colorA[i];
+                if (srcA <= 0f) {
+                    continue;
+                }
+
+                //nearer pixels weight more, from the depth in the 0 to 1 range
+                float inverseDepth = 1f - depth[i];
+                float weight = srcA * Math.max(1e-2f, 3e3f * inverseDepth * inverseDepth * inverseDepth);
+
+                accumulation[(index * 4) + 0] += colorR[i] * weight;
+                accumulation[(index * 4) + 1] += colorG[i] * weight;
+                accumulation[(index * 4) + 2] += colorB[i] * weight;
+                accumulation[(index * 4) + 3] += weight;
+                revealage[index] *= (1f - srcA);
+            }
+        }
+    }
+
+    //rasterizer
+    private class Rasterizer {
+
+        private static final int EDGES_SIZE = 3 * 3;
+        private static final int PLANES_SIZE = VERTEX_SIZE * 3;
+
+        //rounding error of the depth plane, in ulps of its largest term
+        private static final float DEPTH_BOUND_ULPS = 8f;
+
+        private static final int BLOCK_OUTSIDE = 0;
+        private static final int BLOCK_PARTIAL = 1;
+        private static final int BLOCK_INSIDE = 2;
+
+        private final SoftwareRenderer renderer;
+        private final Runnable renderTilesJob = this::renderTiles;
+
+        //draw state
+        private float[] vertices;
+        private int numberOfTriangles;
+
+        private Surface surface;
+        private int width;
+        private int height;
+        private int tilesX;
+        private int tilesY;
+
+        private boolean depthOnly;
+        private boolean alphaTested;
+        private float alphaTestThreshold;
+        private boolean textured;
+        private boolean lit;
+        private boolean pointLit;
+        private boolean deferred;
+        private boolean clearsGBuffer;
+        private boolean vectorized;
+        private boolean multisampled;
+        private int samples;
+        private int[] samplePattern;
+        //how far a sample can be from the pixel center, in sub-pixel units
+        private int sampleReach;
+
+        private float colorR;
+        private float colorG;
+        private float colorB;
+        private float colorA;
+        private TextureStage textureStage;
+        private LightingStage lightingStage;
+        private BlendMode blendMode;
+        private BlendStage blendStage;
+        private boolean orderIndependent;
+        private boolean keepsSpanDepth;
+
+        //one of each stage, reused between draws
+        private final NoTextureStage noTextureStage = new NoTextureStage();
+        private final NearestTextureStage nearestTextureStage = new NearestTextureStage();
+        private final BilinearTextureStage bilinearTextureStage = new BilinearTextureStage();
+        private final NearestFloatTextureStage nearestFloatTextureStage = new NearestFloatTextureStage();
+        private final BilinearFloatTextureStage bilinearFloatTextureStage = new BilinearFloatTextureStage();
+        private final UnlitStage unlitStage = new UnlitStage();
+        private final ClearGBufferStage clearGBufferStage = new ClearGBufferStage();
+        private final DeferredStage deferredStage = new DeferredStage();
+        private final LitStage litStage = new LitStage();
+        private final OpaqueBlendStage opaqueBlendStage = new OpaqueBlendStage();
+        private final AlphaBlendStage alphaBlendStage = new AlphaBlendStage();
+        private final PremultipliedBlendStage premultipliedBlendStage = new PremultipliedBlendStage();
+        private final AdditiveBlendStage additiveBlendStage = new AdditiveBlendStage();
+        private final OrderIndependentBlendStage orderIndependentBlendStage = new OrderIndependentBlendStage();
+
+        private DepthFunction depthFunction;
+        private boolean depthWrite;
+        private boolean hiZRejects;
+        private boolean hiZLowers;
+        private boolean hiZRaises;
+        private final int[] attributes = new int[VERTEX_SIZE];
+        private int numberOfAttributes;
+
+        //layout of the transformed vertices, colors of constant color meshes are not in it
+        private final VertexLayout layout = new VertexLayout();
+        private boolean constantColor;
+        private float constantR;
+        private float constantG;
+        private float constantB;
+        private float constantA;
+
+        //everything below is reused between draws and only grows
+        //fixed point edge functions (x step, y step and value at the center of pixel 0,0 for each edge)
+        //and pixel bounds (minX, minY, maxX, maxY) of each triangle
+        private long[] edges = new long[EDGES_SIZE * 64];
+        private int[] bounds = new int[4 * 64];
+
+        //min and max depth of each triangle, for the hierarchical z, the depth of every pixel is clamped to it,
+        //the depth plane may round a little past the depth of the vertices
+        private float[] depthRanges = new float[2 * 64];
+
+        //screen space planes (d/dx, d/dy, value at 0,0) of the attributes that
+        //the current state needs, already divided by w
+        private float[] planes = new float[PLANES_SIZE * 64];
+
+        //triangles of each tile, in submission order
+        private int[] tileOffsets = new int[1];
+        private int[] tileCounts = new int[1];
+        private int[] tileTriangles = new int[64];
+
+        private final AtomicInteger nextTile = new AtomicInteger();
+
+        public Rasterizer(SoftwareRenderer renderer) {
+            this.renderer = renderer;
+        }
+
+        //reads the render state of a draw and picks the vertex layout, before the vertices are transformed
+        public VertexLayout prepare() {
+            this.surface = this.renderer.getSurface();
+            this.width = this.surface.getWidth();
+            this.height = this.surface.getHeight();
+            this.tilesX = (this.width + (TILE_SIZE - 1)) / TILE_SIZE;
+            this.tilesY = (this.height + (TILE_SIZE - 1)) / TILE_SIZE;
+
+            this.depthOnly = this.renderer.isDepthOnlyEnabled();
+            this.depthFunction = this.renderer.getDepthFunction();
+            this.blendMode = this.renderer.getBlendMode();
+            //order independent transparency never writes depth
+            this.orderIndependent = !this.depthOnly && this.blendMode == BlendMode.ORDER_INDEPENDENT;
+            this.depthWrite = this.renderer.isDepthWriteEnabled() && !this.orderIndependent;
+            this.vectorized = this.renderer.isVectorizationEnabled() && VECTOR_API_AVAILABLE;
+            this.samples = this.surface.getSamples();
+            this.multisampled = this.samples != 1;
+            this.samplePattern = switch (this.samples) {
+                case 2 -> SAMPLE_PATTERN_2X;
+                case 4 -> SAMPLE_PATTERN_4X;
+                default -> SAMPLE_PATTERN_1X;
+            };
+            this.sampleReach = 0;
+            for (int offset : this.samplePattern) {
+                this.sampleReach = Math.max(this.sampleReach, Math.abs(offset));
+            }
+            this.alphaTested = this.renderer.isAlphaTestEnabled();
+            this.alphaTestThreshold = this.renderer.getAlphaTestThreshold();
+            this.keepsSpanDepth = this.alphaTested || this.orderIndependent;
+
+            //the hierarchical z keeps the max depth, so it can only reject for the "less" functions,
+            //and it can only be lowered when depths can only decrease
+            this.hiZRejects = this.depthFunction == DepthFunction.LESS
+                    || this.depthFunction == DepthFunction.LESS_EQUAL
+                    || this.depthFunction == DepthFunction.EQUAL;
+            //alpha tested draws may leave holes in fully covered blocks, and under "equal" the pixels
+            //that fail keep their larger depth (the ones that pass do not change it)
+            this.hiZLowers = this.depthWrite && !this.alphaTested
+                    && (this.depthFunction == DepthFunction.LESS || this.depthFunction == DepthFunction.LESS_EQUAL);
+            this.hiZRaises = this.depthWrite && !this.hiZRejects && this.depthFunction != DepthFunction.NEVER;
+            //depth only draws still need the texture alpha if alpha tested
+            this.textured = (!this.depthOnly || this.alphaTested) && this.renderer.getTexture() != null;
+            this.deferred = !this.depthOnly && this.renderer.isLightingEnabled() && this.renderer.isDeferredShadingEnabled();
+            this.lit = !this.depthOnly && !this.deferred && this.renderer.isLightingEnabled() && (!this.renderer.getLights().isEmpty() || this.renderer.isSunEnabled());
+            this.pointLit = this.lit && !this.renderer.getLights().isEmpty();
+            if (this.deferred) {
+                this.surface.allocateGBuffer();
+            }
+            if (this.orderIndependent) {
+                this.surface.allocateTransparencyBuffers();
+            }
+            this.clearsGBuffer = !this.depthOnly && !this.deferred && this.surface.normalBuffer != null && this.renderer.isDeferredShadingEnabled();
+            neededAttributes();
+            pickStages();
+            pickLayout();
+
+            return this.layout;
+        }
+
+        private void pickLayout() {
+            boolean shaded = !this.depthOnly || this.alphaTested;
+            Mesh mesh = this.renderer.getMesh();
+            this.constantColor = shaded && mesh.isConstantColor();
+            if (this.constantColor) {
+                Vector4fc color = mesh.getConstantColor();
+                this.constantR = color.x();
+                this.constantG = color.y();
+                this.constantB = color.z();
+                this.constantA = color.w();
+            }
+            this.layout.set(
+                    this.textured,
+                    shaded && !this.constantColor,
+                    this.lit || this.deferred,
+                    this.pointLit || this.deferred
+            );
+        }
+
+        private void allocate(float[] transformedVertices, int length) {
+            this.vertices = transformedVertices;
+            this.numberOfTriangles = length / (this.layout.size * 3);
+
+            if (this.edges.length < this.numberOfTriangles * EDGES_SIZE) {
+                this.edges = new long[this.numberOfTriangles * EDGES_SIZE];
+                this.bounds = new int[this.numberOfTriangles * 4];
+                this.depthRanges = new float[this.numberOfTriangles * 2];
+                this.planes = new float[this.numberOfTriangles * PLANES_SIZE];
+            }
+            int numberOfTiles = this.tilesX * this.tilesY;
+            if (this.tileOffsets.length < numberOfTiles + 1) {
+                this.tileOffsets = new int[numberOfTiles + 1];
+                this.tileCounts = new int[numberOfTiles + 1];
+            }
+            this.nextTile.set(0);
+        }
+
+        private void pickStages() {
+            Vector4fc color = this.renderer.getColor();
+            this.colorR = color.x();
+            this.colorG = color.y();
+            this.colorB = color.z();
+            this.colorA = color.w();
+
+            this.textureStage = this.noTextureStage;
+            if (this.textured) {
+                Texture texture = this.renderer.getTexture();
+                boolean bilinear = this.renderer.isBilinearFilteringEnabled();
+                if (texture instanceof FloatTexture floatTexture) {
+                    if (bilinear) {
+                        this.bilinearFloatTextureStage.texture = floatTexture;
+                        this.textureStage = this.bilinearFloatTextureStage;
+                    } else {
+                        this.nearestFloatTextureStage.texture = floatTexture;
+                        this.textureStage = this.nearestFloatTextureStage;
+                    }
+                } else {
+                    if (bilinear) {
+                        this.bilinearTextureStage.texture = texture;
+                        this.textureStage = this.bilinearTextureStage;
+                    } else {
+                        this.nearestTextureStage.texture = texture;
+                        this.textureStage = this.nearestTextureStage;
+                    }
+                }
+            }
+
+            this.lightingStage = this.unlitStage;
+            if (this.deferred) {
+                this.deferredStage.normalBuffer = this.surface.normalBuffer;
+                this.deferredStage.positionBuffer = this.surface.positionBuffer;
+                this.lightingStage = this.deferredStage;
+            } else if (this.lit) {
+                this.litStage.set(this.renderer);
+                this.lightingStage = this.litStage;
+            } else if (this.clearsGBuffer && !this.multisampled) {
+                //multisampled spans clear the samples they write instead
+                this.clearGBufferStage.normalBuffer = this.surface.normalBuffer;
+                this.lightingStage = this.clearGBufferStage;
+            }
+
+            switch (this.blendMode) {
+                case OPAQUE ->
+                    this.blendStage = this.opaqueBlendStage;
+                case PREMULTIPLIED ->
+                    this.blendStage = this.premultipliedBlendStage;
+                case ADDITIVE ->
+                    this.blendStage = this.additiveBlendStage;
+                case ORDER_INDEPENDENT -> {
+                    this.orderIndependentBlendStage.accumulationBuffer = this.surface.accumulationBuffer;
+                    this.orderIndependentBlendStage.revealageBuffer = this.surface.revealageBuffer;
+                    this.blendStage = this.orderIndependentBlendStage;
+                }
+                default ->
+                    this.blendStage = this.alphaBlendStage;
+            }
+        }
+
+        private void neededAttributes() {
+            int length = 0;
+            this.attributes[length++] = CZ;
+            if (!this.depthOnly || this.alphaTested) {
+                this.attributes[length++] = CW_INV;
+                if (this.textured) {
+                    this.attributes[length++] = U;
+                    this.attributes[length++] = V;
+                }
+                this.attributes[length++] = R;
+                this.attributes[length++] = G;
+                this.attributes[length++] = B;
+                this.attributes[length++] = A;
+                if (this.lit || this.deferred) {
+                    this.attributes[length++] = NX;
+                    this.attributes[length++] = NY;
+                    this.attributes[length++] = NZ;
+                }
+                if (this.pointLit || this.deferred) {
+                    this.attributes[length++] = X;
+                    this.attributes[length++] = Y;
+                    this.attributes[length++] = Z;
+                }
+            }
+            this.numberOfAttributes = length;
+        }
+
+        //the vertices must be in the layout returned by prepare
+        //only the first length values of the vertices are drawn
+        public void render(float[] transformedVertices, int length) {
+            allocate(transformedVertices, length);
+            setupTriangles();
+            binTriangles();
+
+            if (!this.renderer.isMultithreadEnabled() || !WORKERS.run(this.renderTilesJob)) {
+                renderTiles();
+            }
+
+            this.vertices = null;
+            this.surface = null;
+        }
+
+        private static long snap(float value) {
+            return Math.round(value * SUBPIXEL_ONE);
+        }
+
+        //edge from a to b, positive on the inside of a counter clockwise triangle,
+        //a pixel center exactly on the edge is only inside if the edge is a top or left edge,
+        //an edge shared by two triangles goes in opposite directions in each, so only one of them owns it
+        private void setupEdge(int e, long ax, long ay, long bx, long by) {
+            long a = ay - by;
+            long b = bx - ax;
+            long c = -((a * ax) + (b * ay));
+            long bias = ((a > 0 || (a == 0 && b < 0)) ? 0 : -1);
+
+            this.edges[e + 0] = a * SUBPIXEL_ONE;
+            this.edges[e + 1] = b * SUBPIXEL_ONE;
+            this.edges[e + 2] = (a * SUBPIXEL_HALF) + (b * SUBPIXEL_HALF) + c + bias;
+        }
+
+        private void setupTriangles() {
+            int size = this.layout.size;
+            int[] offsets = this.layout.offsets;
+            for (int i = 0; i < this.numberOfTriangles; i++) {
+                int v0 = i * (size * 3);
+                int v1 = v0 + size;
+                int v2 = v1 + size;
+
+                long x0 = snap(this.vertices[v0 + CX]);
+                long y0 = snap(this.vertices[v0 + CY]);
+                long x1 = snap(this.vertices[v1 + CX]);
+                long y1 = snap(this.vertices[v1 + CY]);
+                long x2 = snap(this.vertices[v2 + CX]);
+                long y2 = snap(this.vertices[v2 + CY]);
+
+                float v0cz = this.vertices[v0 + CZ];
+                float v1cz = this.vertices[v1 + CZ];
+                float v2cz = this.vertices[v2 + CZ];
+
+                this.depthRanges[(i * 2) + 0] = Math.min(Math.min(v0cz, v1cz), v2cz);
+                this.depthRanges[(i * 2) + 1] = Math.max(Math.max(v0cz, v1cz), v2cz);
+
+                long area = ((x1 - x0) * (y2 - y0)) - ((y1 - y0) * (x2 - x0));
+                if (area == 0) {
+                    //degenerate, covers nothing
+                    this.bounds[(i * 4) + 0] = 0;
+                    this.bounds[(i * 4) + 1] = 0;
+                    this.bounds[(i * 4) + 2] = 0;
+                    this.bounds[(i * 4) + 3] = 0;
+                    continue;
+                }
+
+                int e = i * EDGES_SIZE;
+                if (area > 0) {
+                    setupEdge(e + 0, x1, y1, x2, y2);
+                    setupEdge(e + 3, x2, y2, x0, y0);
+                    setupEdge(e + 6, x0, y0, x1, y1);
+                } else {
+                    setupEdge(e + 0, x2, y2, x1, y1);
+                    setupEdge(e + 3, x0, y0, x2, y2);
+                    setupEdge(e + 6, x1, y1, x0, y0);
+                }
+
+                //barycentric weights of the snapped triangle, w = (a * x) + (b * y) + c
+                float v0cx = x0 / (float) SUBPIXEL_ONE;
+                float v0cy = y0 / (float) SUBPIXEL_ONE;
+                float v1cx = x1 / (float) SUBPIXEL_ONE;
+                float v1cy = y1 / (float) SUBPIXEL_ONE;
+                float v2cx = x2 / (float) SUBPIXEL_ONE;
+                float v2cy = y2 / (float) SUBPIXEL_ONE;
+
+                float inverse = 1f / ((v1cy - v2cy) * (v0cx - v2cx) + (v2cx - v1cx) * (v0cy - v2cy));
+
+                float a0 = (v1cy - v2cy) * inverse;
+                float b0 = (v2cx - v1cx) * inverse;
+                float c0 = -((a0 * v2cx) + (b0 * v2cy));
+
+                float a1 = (v2cy - v0cy) * inverse;
+                float b1 = (v0cx - v2cx) * inverse;
+                float c1 = -((a1 * v2cx) + (b1 * v2cy));
+
+                float a2 = -a0 - a1;
+                float b2 = -b0 - b1;
+                float c2 = 1f - c0 - c1;
+
+                //value = (w0 * value0) + (w1 * value1) + (w2 * value2)
+                int p = i * PLANES_SIZE;
+                for (int j = 0; j < this.numberOfAttributes; j++) {
+                    int attribute = this.attributes[j];
+                    int offset = offsets[attribute];
+                    if (offset < 0) {
+                        continue;
+                    }
+                    float value0 = this.vertices[v0 + offset];
+                    float value1 = this.vertices[v1 + offset];
+                    float value2 = this.vertices[v2 + offset];
+                    this.planes[p + (attribute * 3) + 0] = (a0 * value0) + (a1 * value1) + (a2 * value2);
+                    this.planes[p + (attribute * 3) + 1] = (b0 * value0) + (b1 * value1) + (b2 * value2);
+                    this.planes[p + (attribute * 3) + 2] = (c0 * value0) + (c1 * value1) + (c2 * value2);
+                }
+                if (this.constantColor) {
+                    //a constant divided by w, like every other attribute
+                    constantPlane(p, R, this.constantR);
+                    constantPlane(p, G, this.constantG);
+                    constantPlane(p, B, this.constantB);
+                    constantPlane(p, A, this.constantA);
+                }
+
+                //pixels whose centers (or samples) are inside the snapped bounds
+                long minX = Math.min(Math.min(x0, x1), x2) - this.sampleReach;
+                long minY = Math.min(Math.min(y0, y1), y2) - this.sampleReach;
+                long maxX = Math.max(Math.max(x0, x1), x2) + this.sampleReach;
+                long maxY = Math.max(Math.max(y0, y1), y2) + this.sampleReach;
+
+                this.bounds[(i * 4) + 0] = (int) clamp(Math.floorDiv(minX - SUBPIXEL_HALF + (SUBPIXEL_ONE - 1), SUBPIXEL_ONE), 0, this.width);
+                this.bounds[(i * 4) + 1] = (int) clamp(Math.floorDiv(minY - SUBPIXEL_HALF + (SUBPIXEL_ONE - 1), SUBPIXEL_ONE), 0, this.height);
+                this.bounds[(i * 4) + 2] = (int) clamp(Math.floorDiv(maxX - SUBPIXEL_HALF, SUBPIXEL_ONE) + 1, 0, this.width);
+                this.bounds[(i * 4) + 3] = (int) clamp(Math.floorDiv(maxY - SUBPIXEL_HALF, SUBPIXEL_ONE) + 1, 0, this.height);
+            }
+        }
+
+        private void constantPlane(int p, int attribute, float value) {
+            this.planes[p + (attribute * 3) + 0] = this.planes[p + (CW_INV * 3) + 0] * value;
+            this.planes[p + (attribute * 3) + 1] = this.planes[p + (CW_INV * 3) + 1] * value;
+            this.planes[p + (attribute * 3) + 2] = this.planes[p + (CW_INV * 3) + 2] * value;
+        }
+
+        private void binTriangles() {
+            //count, prefix sum and then fill, so each tile keeps the submission order
+            int numberOfTiles = this.tilesX * this.tilesY;
+            Arrays.fill(this.tileCounts, 0, numberOfTiles, 0);
+            for (int i = 0; i < this.numberOfTriangles; i++) {
+                binTriangle(i, false);
+            }
+
+            int total = 0;
+            for (int tile = 0; tile < numberOfTiles; tile++) {
+                this.tileOffsets[tile] = total;
+                total += this.tileCounts[tile];
+                this.tileCounts[tile] = this.tileOffsets[tile];
+            }
+            this.tileOffsets[numberOfTiles] = total;
+            if (this.tileTriangles.length < total) {
+                this.tileTriangles = new int[total];
+            }
+
+            for (int i = 0; i < this.numberOfTriangles; i++) {
+                binTriangle(i, true);
+            }
+        }
+
+        private void binTriangle(int triangle, boolean fill) {
+            int minX = this.bounds[(triangle * 4) + 0];
+            int minY = this.bounds[(triangle * 4) + 1];
+            int maxX = this.bounds[(triangle * 4) + 2];
+            int maxY = this.bounds[(triangle * 4) + 3];
+            if (maxX <= minX || maxY <= minY) {
+                return;
+            }
+            float minDepth = this.depthRanges[(triangle * 2) + 0];
+            int maxTileX = (maxX - 1) / TILE_SIZE;
+            int maxTileY = (maxY - 1) / TILE_SIZE;
+            for (int tileY = minY / TILE_SIZE; tileY <= maxTileY; tileY++) {
+                for (int tileX = minX / TILE_SIZE; tileX <= maxTileX; tileX++) {
+                    int tile = tileX + (tileY * this.tilesX);
+                    if (this.hiZRejects && minDepth > this.surface.tileMaxDepth[tile]) {
+                        //hidden behind what was drawn in this tile before
+                        continue;
+                    }
+                    if (fill) {
+                        this.tileTriangles[this.tileCounts[tile]++] = triangle;
+                    } else {
+                        this.tileCounts[tile]++;
+                    }
+                }
+            }
+        }
+
+        private void renderTiles() {
+            WorkerScratch scratch = SCRATCH.get();
+            int numberOfTiles = this.tilesX * this.tilesY;
+            int tile;
+            while ((tile = this.nextTile.getAndIncrement()) < numberOfTiles) {
+                renderTile(tile, scratch);
+            }
+        }
+
+        private void renderTile(int tile, WorkerScratch scratch) {
+            int tileMinX = (tile % this.tilesX) * TILE_SIZE;
+            int tileMinY = (tile / this.tilesX) * TILE_SIZE;
+            int tileMaxX = Math.min(tileMinX + TILE_SIZE, this.width);
+            int tileMaxY = Math.min(tileMinY + TILE_SIZE, this.height);
+
+            float[] blockMaxDepth = this.surface.blockMaxDepth;
+            float[] tileMaxDepth = this.surface.tileMaxDepth;
+            int blocksX = this.surface.blocksX;
+
+            for (int i = this.tileOffsets[tile]; i < this.tileOffsets[tile + 1]; i++) {
+                int triangle = this.tileTriangles[i];
+
+                if (this.hiZRejects && this.depthRanges[(triangle * 2) + 0] > tileMaxDepth[tile]) {
+                    continue;
+                }
+                boolean tileDepthChanged = false;
+
+                int minX = Math.max(this.bounds[(triangle * 4) + 0], tileMinX);
+                int minY = Math.max(this.bounds[(triangle * 4) + 1], tileMinY);
+                int maxX = Math.min(this.bounds[(triangle * 4) + 2], tileMaxX);
+                int maxY = Math.min(this.bounds[(triangle * 4) + 3], tileMaxY);
+
+                int firstBlockX = minX - (minX % BLOCK_SIZE);
+                for (int blockY = minY - (minY % BLOCK_SIZE); blockY < maxY; blockY += BLOCK_SIZE) {
+                    int blockMinY = Math.max(blockY, minY);
+                    int blockMaxY = Math.min(blockY + BLOCK_SIZE, maxY);
+
+                    //one bit per block of this row
+                    int insideMask = 0;
+                    int partialMask = 0;
+                    int firstBlock = (firstBlockX / BLOCK_SIZE) + ((blockY / BLOCK_SIZE) * blocksX);
+                    for (int blockX = firstBlockX, bit = 0; blockX < maxX; blockX += BLOCK_SIZE, bit++) {
+                        int blockMinX = Math.max(blockX, minX);
+                        int blockMaxX = Math.min(blockX + BLOCK_SIZE, maxX);
+                        int block = classifyBlock(triangle, blockMinX, blockMinY, blockMaxX, blockMaxY);
+                        if (block != BLOCK_OUTSIDE && this.hiZRejects && depthBound(triangle, blockMinX, blockMinY, blockMaxX, blockMaxY, false) > blockMaxDepth[firstBlock + bit]) {
+                            //occluded
+                            block = BLOCK_OUTSIDE;
+                        }
+                        switch (block) {
+                            case BLOCK_INSIDE ->
+                                insideMask |= (1 << bit);
+                            case BLOCK_PARTIAL ->
+                                partialMask |= (1 << bit);
+                        }
+                    }
+                    if ((insideMask | partialMask) == 0) {
+                        continue;
+                    }
+
+                    for (int y = blockMinY; y < blockMaxY; y++) {
+                        //render runs of blocks of the same kind as a single span
+                        int blockX = firstBlockX;
+                        int bit = 0;
+                        while (blockX < maxX) {
+                            boolean inside = ((insideMask >>> bit) & 1) != 0;
+                            boolean partial = ((partialMask >>> bit) & 1) != 0;
+                            int runStart = blockX;
+                            do {
+                                blockX += BLOCK_SIZE;
+                                bit++;
+                            } while (blockX < maxX
+                                    && inside == (((insideMask >>> bit) & 1) != 0)
+                                    && partial == (((partialMask >>> bit) & 1) != 0));
+
+                            if (inside || partial) {
+                                if (this.multisampled) {
+                                    renderMultisampleLine(triangle, y, Math.max(runStart, minX), Math.min(blockX, maxX), inside, scratch);
+                                } else if (this.vectorized) {
+                                    VectorSpans.renderLine(this, triangle, y, Math.max(runStart, minX), Math.min(blockX, maxX), inside, scratch);
+                                } else if (this.depthOnly && !this.alphaTested) {
+                                    renderDepthLine(triangle, y, Math.max(runStart, minX), Math.min(blockX, maxX), inside);
+                                } else {
+                                    renderLine(triangle, y, Math.max(runStart, minX), Math.min(blockX, maxX), inside, scratch);
+                                }
+                            }
+                        }
+                    }
+
+                    if (this.hiZRaises) {
+                        //written pixels have a depth that is at most the max depth of the triangle in the block
+                        for (int blockX = firstBlockX, bit = 0; blockX < maxX; blockX += BLOCK_SIZE, bit++) {
+                            if ((((insideMask | partialMask) >>> bit) & 1) == 0) {
+                                continue;
+                            }
+                            float maxDepth = depthBound(triangle, Math.max(blockX, minX), blockMinY, Math.min(blockX + BLOCK_SIZE, maxX), blockMaxY, true);
+                            if (maxDepth > blockMaxDepth[firstBlock + bit]) {
+                                blockMaxDepth[firstBlock + bit] = maxDepth;
+                                tileDepthChanged = true;
+                            }
+                        }
+                    }
+
+                    //every pixel of a fully covered block now has a depth that is at most
+                    //the max depth of the triangle in that block, partial blocks are left as they are
+                    if (!this.hiZLowers || blockMinY != blockY || blockMaxY != Math.min(blockY + BLOCK_SIZE, this.height)) {
+                        continue;
+                    }
+                    for (int blockX = firstBlockX, bit = 0; blockX < maxX && insideMask != 0; blockX += BLOCK_SIZE, bit++) {
+                        if (((insideMask >>> bit) & 1) == 0
+                                || blockX < minX
+                                || Math.min(blockX + BLOCK_SIZE, this.width) > maxX) {
+                            continue;
+                        }
+                        float maxDepth = depthBound(triangle, blockX, blockY, Math.min(blockX + BLOCK_SIZE, maxX), blockMaxY, true);
+                        if (maxDepth < blockMaxDepth[firstBlock + bit]) {
+                            blockMaxDepth[firstBlock + bit] = maxDepth;
+                            tileDepthChanged = true;
+                        }
+                    }
+                }
+
+                if (tileDepthChanged) {
+                    this.surface.updateTileMaxDepth(tile);
+                }
+            }
+        }
+
+        private float depthBound(int triangle, int minX, int minY, int maxX, int maxY, boolean max) {
+            int p = (triangle * PLANES_SIZE) + (CZ * 3);
+            float a = this.planes[p + 0];
+            float b = this.planes[p + 1];
+            float c = this.planes[p + 2];
+
+            //samples may be off the pixel centers
+            float margin = this.sampleReach / (float) SUBPIXEL_ONE;
+            float value = (a * ((minX + 0.5f) - margin)) + (b * ((minY + 0.5f) - margin)) + c;
+            float stepX = a * (((maxX - 1) - minX) + (margin * 2f));
+            float stepY = b * (((maxY - 1) - minY) + (margin * 2f));
+
+            //the pixels evaluate the plane in another order, so the bound is widened by the rounding of both
+            float error = DEPTH_BOUND_ULPS * Math.ulp(Math.abs(a * maxX) + Math.abs(b * maxY) + Math.abs(c));
+
+            //the plane is only a bound inside the triangle, so it is clamped to the triangle depth range
+            if (max) {
+                return Math.min(value + Math.max(stepX, 0f) + Math.max(stepY, 0f) + error, this.depthRanges[(triangle * 2) + 1]);
+            }
+            return Math.max(value + Math.min(stepX, 0f) + Math.min(stepY, 0f) - error, this.depthRanges[(triangle * 2) + 0]);
+        }
+
+        private int classifyBlock(int triangle, int minX, int minY, int maxX, int maxY) {
+            int e = triangle * EDGES_SIZE;
+            long width = (maxX - 1) - minX;
+            long height = (maxY - 1) - minY;
+
+            //edge functions are linear, their extremes are at the corners of the block
+            boolean inside = true;
+            for (int i = 0; i < 3; i++) {
+                long a = this.edges[e + (i * 3) + 0];
+                long b = this.edges[e + (i * 3) + 1];
+                long c = this.edges[e + (i * 3) + 2];
+
+                long value = (a * minX) + (b * minY) + c;
+                long stepX = a * width;
+                long stepY = b * height;
+                //how much the samples may add or remove from the value at the pixel centers
+                long reach = ((Math.abs(a) + Math.abs(b)) >> SUBPIXEL_BITS) * this.sampleReach;
+
+                long max = value + Math.max(stepX, 0L) + Math.max(stepY, 0L) + reach;
+                if (max < 0L) {
+                    return BLOCK_OUTSIDE;
+                }
+                long min = value + Math.min(stepX, 0L) + Math.min(stepY, 0L) - reach;
+                if (min < 0L) {
+                    inside = false;
+                }
+            }
+            return (inside ? BLOCK_INSIDE : BLOCK_PARTIAL);
+        }
+
+        //one bit for each pixel of the span whose center is inside the triangle, spans are never wider than a tile,
+        //integer math is exact, so a pixel gets the same coverage no matter where its span starts
+        private long coverage(int triangle, int y, int minX, int maxX) {
+            return coverage(triangle, y, minX, maxX, 0, 0);
+        }
+
+        //same as above for a sample at an offset (in sub-pixel units) from the pixel centers
+        private long coverage(int triangle, int y, int minX, int maxX, int offsetX, int offsetY) {
+            int e = triangle * EDGES_SIZE;
+            long a0 = this.edges[e + 0];
+            long a1 = this.edges[e + 3];
+            long a2 = this.edges[e + 6];
+            long b0 = this.edges[e + 1];
+            long b1 = this.edges[e + 4];
+            long b2 = this.edges[e + 7];
+            //the steps are multiples of a whole pixel, so the shift is exact
+            long w0 = (a0 * minX) + (b0 * y) + this.edges[e + 2] + (((a0 * offsetX) + (b0 * offsetY)) >> SUBPIXEL_BITS);
+            long w1 = (a1 * minX) + (b1 * y) + this.edges[e + 5] + (((a1 * offsetX) + (b1 * offsetY)) >> SUBPIXEL_BITS);
+            long w2 = (a2 * minX) + (b2 * y) + this.edges[e + 8] + (((a2 * offsetX) + (b2 * offsetY)) >> SUBPIXEL_BITS);
+
+            long bits = 0L;
+            int length = maxX - minX;
+            for (int i = 0; i < length; i++) {
+                //set if no weight is negative
+                bits |= (~(w0 | w1 | w2) >>> 63) << i;
+                w0 += a0;
+                w1 += a1;
+                w2 += a2;
+            }
+            return bits;
+        }
+
+        private long spanCoverage(int triangle, int y, int minX, int maxX, boolean covered) {
+            if (covered) {
+                return -1L >>> (64 - (maxX - minX));
+            }
+            return coverage(triangle, y, minX, maxX);
+        }
+
+        private long clamp(long v, long min, long max) {
+            return Math.max(Math.min(v, max), min);
+        }
+
+        private float step(int p, int attribute) {
+            return this.planes[p + (attribute * 3) + 0];
+        }
+
+        private float row(int p, int attribute, float y) {
+            return (this.planes[p + (attribute * 3) + 1] * y) + this.planes[p + (attribute * 3) + 2];
+        }
+
+        //depth is evaluated at every pixel instead of being stepped from the start of the span,
+        //a pixel must get the same depth in every pass (spans start at different places depending
+        //on the hierarchical z) and in both the scalar and the vectorized spans, or the EQUAL depth
+        //function of a depth pre-pass would fail
+        private void renderDepthLine(int triangle, int y, int minX, int maxX, boolean covered) {
+            float yPos = y + 0.5f;
+
+            int p = triangle * PLANES_SIZE;
+            float depthStep = step(p, CZ);
+            float rowDepth = (this.planes[p + (CZ * 3) + 1] * yPos) + this.planes[p + (CZ * 3) + 2];
+            float minDepth = this.depthRanges[(triangle * 2) + 0];
+            float maxDepth = this.depthRanges[(triangle * 2) + 1];
+
+            float[] surfaceDepth = this.surface.depthBuffer;
+            int rowOffset = y * this.width;
+
+            for (long bits = spanCoverage(triangle, y, minX, maxX, covered); bits != 0; bits &= (bits - 1)) {
+                int x = minX + Long.numberOfTrailingZeros(bits);
+                float xPos = x + 0.5f;
+
+                int pixelIndex = x + rowOffset;
+                float depth = Math.min(Math.max((depthStep * xPos) + rowDepth, minDepth), maxDepth);
+                if (this.depthWrite && this.depthFunction.test(depth, surfaceDepth[pixelIndex])) {
+                    surfaceDepth[pixelIndex] = depth;
+                }
+            }
+        }
+
+        //coverage, depth and interpolation of the span, then the stages of the draw shade the pixels that passed
+        private void renderLine(int triangle, int y, int minX, int maxX, boolean covered, WorkerScratch scratch) {
+            long coverage = spanCoverage(triangle, y, minX, maxX, covered);
+            if (coverage == 0L) {
+                return;
+            }
+
+            float yPos = y + 0.5f;
+
+            int p = triangle * PLANES_SIZE;
+            float depthStep = step(p, CZ);
+            float depthRow = row(p, CZ, yPos);
+            float minDepth = this.depthRanges[(triangle * 2) + 0];
+            float maxDepth = this.depthRanges[(triangle * 2) + 1];
+
+            final DepthFunction depthTest = this.depthFunction;
+            final boolean depthWrites = this.depthWrite;
+            final boolean keepsDepth = this.keepsSpanDepth;
+
+            //written in place, tiles never overlap
+            final float[] surfaceDepth = this.surface.depthBuffer;
+            final int rowOffset = y * this.width;
+            final float[] spanDepth = scratch.spanDepth;
+
+            long pixels = 0L;
+            for (long bits = coverage; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                int x = minX + i;
+                float xPos = x + 0.5f;
+
+                int pixelIndex = x + rowOffset;
+                float depth = Math.min(Math.max((depthStep * xPos) + depthRow, minDepth), maxDepth);
+                if (!depthTest.test(depth, surfaceDepth[pixelIndex])) {
+                    continue;
+                }
+                if (keepsDepth) {
+                    //written only if the pixel passes the alpha test, or weights the transparency
+                    spanDepth[i] = depth;
+                } else if (depthWrites) {
+                    surfaceDepth[pixelIndex] = depth;
+                }
+
+                pixels |= (1L << i);
+            }
+
+            if (pixels == 0L) {
+                return;
+            }
+
+            int firstPixel = minX + rowOffset;
+            interpolate(p, pixels, minX, yPos, scratch);
+            this.textureStage.sample(pixels, scratch);
+            if (this.alphaTested) {
+                pixels = alphaTest(pixels, firstPixel, scratch);
+                if (pixels == 0L || this.depthOnly) {
+                    return;
+                }
+            }
+            this.lightingStage.shade(pixels, firstPixel, scratch);
+            this.blendStage.blend(this.surface.colorBuffer, pixels, firstPixel, scratch.spanR, scratch.spanG, scratch.spanB, scratch);
+        }
+
+        //multisampled spans, coverage and depth are tested at every sample, but the pixel is shaded
+        //only once (at its center) and the result is blended into every sample that passed
+        private void renderMultisampleLine(int triangle, int y, int minX, int maxX, boolean covered, WorkerScratch scratch) {
+            float yPos = y + 0.5f;
+
+            int p = triangle * PLANES_SIZE;
+            float depthStepX = this.planes[p + (CZ * 3) + 0];
+            float depthStepY = this.planes[p + (CZ * 3) + 1];
+            float depthValue = this.planes[p + (CZ * 3) + 2];
+            float minDepth = this.depthRanges[(triangle * 2) + 0];
+            float maxDepth = this.depthRanges[(triangle * 2) + 1];
+
+            final DepthFunction depthTest = this.depthFunction;
+            final boolean depthWrites = this.depthWrite;
+            final boolean alphaTests = this.alphaTested;
+            final int rowOffset = y * this.width;
+            final long[] sampleMasks = scratch.sampleMasks;
+            final float[] sampleDepths = scratch.sampleDepths;
+
+            long pixels = 0L;
+            for (int s = 0; s < this.samples; s++) {
+                int offsetX = this.samplePattern[(s * 2) + 0];
+                int offsetY = this.samplePattern[(s * 2) + 1];
+                float sampleX = offsetX / (float) SUBPIXEL_ONE;
+                float sampleY = offsetY / (float) SUBPIXEL_ONE;
+                float depthRow = (depthStepY * (yPos + sampleY)) + depthValue;
+                float[] surfaceDepth = this.surface.sampleDepthBuffers[s];
+
+                long coverage = (covered ? -1L >>> (64 - (maxX - minX)) : coverage(triangle, y, minX, maxX, offsetX, offsetY));
+                long passed = 0L;
+                for (long bits = coverage; bits != 0; bits &= (bits - 1)) {
+                    int i = Long.numberOfTrailingZeros(bits);
+                    int pixelIndex = minX + i + rowOffset;
+                    float depth = Math.min(Math.max((depthStepX * (minX + i + 0.5f + sampleX)) + depthRow, minDepth), maxDepth);
+                    if (!depthTest.test(depth, surfaceDepth[pixelIndex])) {
+                        continue;
+                    }
+                    if (alphaTests) {
+                        //written only if the pixel passes the alpha test
+                        sampleDepths[(s * TILE_SIZE) + i] = depth;
+                    } else if (depthWrites) {
+                        surfaceDepth[pixelIndex] = depth;
+                    }
+                    passed |= (1L << i);
+                }
+                sampleMasks[s] = passed;
+                pixels |= passed;
+            }
+
+            if (pixels == 0L || (this.depthOnly && !this.alphaTested)) {
+                return;
+            }
+
+            int firstPixel = minX + rowOffset;
+            interpolate(p, pixels, minX, yPos, scratch);
+            this.textureStage.sample(pixels, scratch);
+            if (this.alphaTested) {
+                pixels = multisampleAlphaTest(pixels, firstPixel, scratch);
+                if (pixels == 0L || this.depthOnly) {
+                    return;
+                }
+            }
+            this.lightingStage.shade(pixels, firstPixel, scratch);
+            if (this.orderIndependent) {
+                //transparency is accumulated per pixel, weighted by the depth at the pixel center,
+                //the alpha is scaled by the covered samples, or shared edges would be accumulated twice
+                float invSamples = 1f / this.samples;
+                for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                    int i = Long.numberOfTrailingZeros(bits);
+                    int coveredSamples = 0;
+                    for (int s = 0; s < this.samples; s++) {
+                        coveredSamples += (int) ((sampleMasks[s] >>> i) & 1L);
+                    }
+                    scratch.spanA[i] *= coveredSamples * invSamples;
+                    scratch.spanDepth[i] = (depthStepX * (minX + i + 0.5f)) + (depthStepY * yPos) + depthValue;
+                }
+                this.blendStage.blend(null, pixels, firstPixel, scratch.spanR, scratch.spanG, scratch.spanB, scratch);
+            } else {
+                for (int s = 0; s < this.samples; s++) {
+                    this.blendStage.blend(this.surface.sampleColorBuffers[s], sampleMasks[s], firstPixel, scratch.spanR, scratch.spanG, scratch.spanB, scratch);
+                }
+            }
+
+            if (this.deferred || this.clearsGBuffer) {
+                //the lighting pass lights only the samples written by deferred draws
+                byte[] deferredSamples = this.surface.deferredSamples;
+                for (int s = 0; s < this.samples; s++) {
+                    for (long bits = sampleMasks[s]; bits != 0; bits &= (bits - 1)) {
+                        int pixelIndex = firstPixel + Long.numberOfTrailingZeros(bits);
+                        if (this.deferred) {
+                            deferredSamples[pixelIndex] |= (byte) (1 << s);
+                        } else {
+                            deferredSamples[pixelIndex] &= (byte) ~(1 << s);
+                        }
+                    }
+                }
+            }
+        }
+
+        private long multisampleAlphaTest(long pixels, int pixelIndex, WorkerScratch scratch) {
+            final float threshold = this.alphaTestThreshold;
+            final float[] spanA = scratch.spanA;
+
+            long passed = 0L;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                if (spanA[i] >= threshold) {
+                    passed |= (1L << i);
+                }
+            }
+
+            for (int s = 0; s < this.samples; s++) {
+                long sampleMask = scratch.sampleMasks[s] & passed;
+                scratch.sampleMasks[s] = sampleMask;
+                if (!this.depthWrite) {
+                    continue;
+                }
+                float[] surfaceDepth = this.surface.sampleDepthBuffers[s];
+                for (long bits = sampleMask; bits != 0; bits &= (bits - 1)) {
+                    int i = Long.numberOfTrailingZeros(bits);
+                    surfaceDepth[pixelIndex + i] = scratch.sampleDepths[(s * TILE_SIZE) + i];
+                }
+            }
+            return passed;
+        }
+
+        //attributes of the pixels at their centers, perspective corrected
+        private void interpolate(int p, long pixels, int minX, float yPos, WorkerScratch scratch) {
+            //attributes at x = 0 of this row and their x steps
+            float invwStep = step(p, CW_INV);
+            float uStep = step(p, U);
+            float vStep = step(p, V);
+            float vrStep = step(p, R);
+            float vgStep = step(p, G);
+            float vbStep = step(p, B);
+            float vaStep = step(p, A);
+            float nxStep = step(p, NX);
+            float nyStep = step(p, NY);
+            float nzStep = step(p, NZ);
+            float worldxStep = step(p, X);
+            float worldyStep = step(p, Y);
+            float worldzStep = step(p, Z);
+
+            float invwRow = row(p, CW_INV, yPos);
+            float uRow = row(p, U, yPos);
+            float vRow = row(p, V, yPos);
+            float vrRow = row(p, R, yPos);
+            float vgRow = row(p, G, yPos);
+            float vbRow = row(p, B, yPos);
+            float vaRow = row(p, A, yPos);
+            float nxRow = row(p, NX, yPos);
+            float nyRow = row(p, NY, yPos);
+            float nzRow = row(p, NZ, yPos);
+            float worldxRow = row(p, X, yPos);
+            float worldyRow = row(p, Y, yPos);
+            float worldzRow = row(p, Z, yPos);
+
+            final boolean uvs = this.textured;
+            final boolean normals = this.lit || this.deferred;
+            final boolean positions = this.pointLit || this.deferred;
+            final float colorR = this.colorR;
+            final float colorG = this.colorG;
+            final float colorB = this.colorB;
+            final float colorA = this.colorA;
+
+            final float[] spanR = scratch.spanR;
+            final float[] spanG = scratch.spanG;
+            final float[] spanB = scratch.spanB;
+            final float[] spanA = scratch.spanA;
+            final float[] spanU = scratch.spanU;
+            final float[] spanV = scratch.spanV;
+            final float[] spanX = scratch.spanX;
+            final float[] spanY = scratch.spanY;
+            final float[] spanZ = scratch.spanZ;
+            final float[] spanNX = scratch.spanNX;
+            final float[] spanNY = scratch.spanNY;
+            final float[] spanNZ = scratch.spanNZ;
+
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                float xPos = minX + i + 0.5f;
+
+                float w = 1f / ((invwStep * xPos) + invwRow);
+
+                spanR[i] = colorR * ((vrStep * xPos) + vrRow) * w;
+                spanG[i] = colorG * ((vgStep * xPos) + vgRow) * w;
+                spanB[i] = colorB * ((vbStep * xPos) + vbRow) * w;
+                spanA[i] = colorA * ((vaStep * xPos) + vaRow) * w;
+
+                if (uvs) {
+                    spanU[i] = ((uStep * xPos) + uRow) * w;
+                    spanV[i] = ((vStep * xPos) + vRow) * w;
+                }
+
+                if (normals) {
+                    spanNX[i] = (nxStep * xPos) + nxRow;
+                    spanNY[i] = (nyStep * xPos) + nyRow;
+                    spanNZ[i] = (nzStep * xPos) + nzRow;
+                }
+
+                if (positions) {
+                    spanX[i] = ((worldxStep * xPos) + worldxRow) * w;
+                    spanY[i] = ((worldyStep * xPos) + worldyRow) * w;
+                    spanZ[i] = ((worldzStep * xPos) + worldzRow) * w;
+                }
+            }
+        }
+
+        //discards the pixels below the threshold and writes the depth of the others,
+        //the depth is only known to be visible after the texture is sampled
+        private long alphaTest(long pixels, int pixelIndex, WorkerScratch scratch) {
+            final float threshold = this.alphaTestThreshold;
+            final boolean depthWrites = this.depthWrite;
+            final float[] surfaceDepth = this.surface.depthBuffer;
+            final float[] spanDepth = scratch.spanDepth;
+            final float[] spanA = scratch.spanA;
+
+            long passed = 0L;
+            for (long bits = pixels; bits != 0; bits &= (bits - 1)) {
+                int i = Long.numberOfTrailingZeros(bits);
+                if (spanA[i] < threshold) {
+                    continue;
+                }
+                passed |= (1L << i);
+                if (depthWrites) {
+                    surfaceDepth[pixelIndex + i] = spanDepth[i];
+                }
+            }
+            return passed;
+        }
+    }
+
+    //vectorized vertex stage, this class is only loaded if the jdk.incubator.vector module is present,
+    //the positions and normals of a vector of vertices are transformed at once from the mesh columns and
+    //scattered into the transformed vertices of the layout with the uvs and colors, the operations are in the same order as the
+    //joml ones (no fma), so the results are the same as the scalar vertex stage
+    private static class VectorVertices {
+
+        private static final VectorSpecies<Float> SPECIES = VectorSpans.SPECIES;
+        private static final int LANES = SPECIES.length();
+
+        //offset of each lane in the transformed vertices, for each vertex size
+        private static final int[][] LANE_OFFSETS = new int[VERTEX_SIZE + 1][LANES];
+
+        static {
+            for (int size = 0; size < LANE_OFFSETS.length; size++) {
+                for (int i = 0; i < LANES; i++) {
+                    LANE_OFFSETS[size][i] = i * size;
+                }
+            }
+        }
+
+        //the attributes the layout keeps, the column of the first vertex is the first minus base,
+        //returns the first vertex left to the scalar code
+        public static int transformAttributes(Mesh.Columns columns, int base, Matrix4f model, Matrix3f normalModel, VertexLayout layout, float[] output, int first, int last) {
+            float m00 = model.m00();
+            float m01 = model.m01();
+            float m02 = model.m02();
+            float m10 = model.m10();
+            float m11 = model.m11();
+            float m12 = model.m12();
+            float m20 = model.m20();
+            float m21 = model.m21();
+            float m22 = model.m22();
+            float m30 = model.m30();
+            float m31 = model.m31();
+            float m32 = model.m32();
+
+            float n00 = normalModel.m00();
+            float n01 = normalModel.m01();
+            float n02 = normalModel.m02();
+            float n10 = normalModel.m10();
+            float n11 = normalModel.m11();
+            float n12 = normalModel.m12();
+            float n20 = normalModel.m20();
+            float n21 = normalModel.m21();
+            float n22 = normalModel.m22();
+
+            int size = layout.size;
+            int[] offsets = layout.offsets;
+            int[] laneOffsets = LANE_OFFSETS[size];
+
+            int v = first;
+            for (; v <= last - LANES; v += LANES) {
+                int vout = v * size;
+                int c = v - base;
+
+                if (layout.world) {
+                    FloatVector x = FloatVector.fromArray(SPECIES, columns.x, c);
+                    FloatVector y = FloatVector.fromArray(SPECIES, columns.y, c);
+                    FloatVector z = FloatVector.fromArray(SPECIES, columns.z, c);
+
+                    x.mul(m00).add(y.mul(m10).add(z.mul(m20).add(m30))).intoArray(output, vout + offsets[X], laneOffsets, 0);
+                    x.mul(m01).add(y.mul(m11).add(z.mul(m21).add(m31))).intoArray(output, vout + offsets[Y], laneOffsets, 0);
+                    x.mul(m02).add(y.mul(m12).add(z.mul(m22).add(m32))).intoArray(output, vout + offsets[Z], laneOffsets, 0);
+                }
+
+                if (layout.uvs) {
+                    FloatVector.fromArray(SPECIES, columns.u, c).intoArray(output, vout + offsets[U], laneOffsets, 0);
+                    FloatVector.fromArray(SPECIES, columns.v, c).intoArray(output, vout + offsets[V], laneOffsets, 0);
+                }
+
+                if (layout.normals) {
+                    FloatVector nx = FloatVector.fromArray(SPECIES, columns.nx, c);
+                    FloatVector ny = FloatVector.fromArray(SPECIES, columns.ny, c);
+                    FloatVector nz = FloatVector.fromArray(SPECIES, columns.nz, c);
+
+                    FloatVector tx = nx.mul(n00).add(ny.mul(n10).add(nz.mul(n20)));
+                    FloatVector ty = nx.mul(n01).add(ny.mul(n11).add(nz.mul(n21)));
+                    FloatVector tz = nx.mul(n02).add(ny.mul(n12).add(nz.mul(n22)));
+
+                    FloatVector inverseLength = FloatVector.broadcast(SPECIES, 1f).div(tx.mul(tx).add(ty.mul(ty).add(tz.mul(tz))).sqrt());
+
+                    tx.mul(inverseLength).intoArray(output, vout + offsets[NX], laneOffsets, 0);
+                    ty.mul(inverseLength).intoArray(output, vout + offsets[NY], laneOffsets, 0);
+                    tz.mul(inverseLength).intoArray(output, vout + offsets[NZ], laneOffsets, 0);
+                }
+
+                if (layout.colors) {
+                    FloatVector.fromArray(SPECIES, columns.r, c).intoArray(output, vout + offsets[R], laneOffsets, 0);
+                    FloatVector.fromArray(SPECIES, columns.g, c).intoArray(output, vout + offsets[G], laneOffsets, 0);
+                    FloatVector.fromArray(SPECIES, columns.b, c).intoArray(output, vout + offsets[B], laneOffsets, 0);
+                    FloatVector.fromArray(SPECIES, columns.a, c).intoArray(output, vout + offsets[A], laneOffsets, 0);
+                }
+            }
+            return v;
+        }
+
+        //clip position from the world position of the local one (w is one), the column of the first vertex is
+        //the first minus base, returns the first vertex left to the scalar code
+        public static int transformClip(Mesh.Columns columns, int base, Matrix4f model, Matrix4f projectionView, float[] output, int size, int first, int last) {
+            float m00 = model.m00();
+            float m01 = model.m01();
+            float m02 = model.m02();
+            float m10 = model.m10();
+            float m11 = model.m11();
+            float m12 = model.m12();
+            float m20 = model.m20();
+            float m21 = model.m21();
+            float m22 = model.m22();
+            float m30 = model.m30();
+            float m31 = model.m31();
+            float m32 = model.m32();
+
+            float p00 = projectionView.m00();
+            float p01 = projectionView.m01();
+            float p02 = projectionView.m02();
+            float p03 = projectionView.m03();
+            float p10 = projectionView.m10();
+            float p11 = projectionView.m11();
+            float p12 = projectionView.m12();
+            float p13 = projectionView.m13();
+            float p20 = projectionView.m20();
+            float p21 = projectionView.m21();
+            float p22 = projectionView.m22();
+            float p23 = projectionView.m23();
+            float p30 = projectionView.m30();
+            float p31 = projectionView.m31();
+            float p32 = projectionView.m32();
+            float p33 = projectionView.m33();
+
+            int[] laneOffsets = LANE_OFFSETS[size];
+
+            int v = first;
+            for (; v <= last - LANES; v += LANES) {
+                int vout = v * size;
+                int c = v - base;
+
+                FloatVector x = FloatVector.fromArray(SPECIES, columns.x, c);
+                FloatVector y = FloatVector.fromArray(SPECIES, columns.y, c);
+                FloatVector z = FloatVector.fromArray(SPECIES, columns.z, c);
+
+                FloatVector wx = x.mul(m00).add(y.mul(m10).add(z.mul(m20).add(m30)));
+                FloatVector wy = x.mul(m01).add(y.mul(m11).add(z.mul(m21).add(m31)));
+                FloatVector wz = x.mul(m02).add(y.mul(m12).add(z.mul(m22).add(m32)));
+
+                wx.mul(p00).add(wy.mul(p10).add(wz.mul(p20).add(p30))).intoArray(output, vout + CX, laneOffsets, 0);
+                wx.mul(p01).add(wy.mul(p11).add(wz.mul(p21).add(p31))).intoArray(output, vout + CY, laneOffsets, 0);
+                wx.mul(p02).add(wy.mul(p12).add(wz.mul(p22).add(p32))).intoArray(output, vout + CZ, laneOffsets, 0);
+                wx.mul(p03).add(wy.mul(p13).add(wz.mul(p23).add(p33))).intoArray(output, vout + CW, laneOffsets, 0);
+            }
+            return v;
+        }
+    }
+
+    //vectorized spans, this class is only loaded if the jdk.incubator.vector module is present
+    //(java --add-modules jdk.incubator.vector), depth, interpolation, normal normalization, sun lighting
+    //and alpha blending are done for a whole vector of pixels at once, the coverage mask comes from the
+    //scalar fixed point edges, texture sampling, the lights and the other blend modes are still scalar,
+    //the stages are small methods connected by the span arrays of the scratch memory, so the jit
+    //can inline every vector operation (a vector that escapes a method is boxed)
+    private static class VectorSpans {
+
+        //at most 256 bits, the jdk 17 jit does not intrinsify every 512 bits operation
+        //and boxes the vectors instead, which is much slower than the scalar spans
+        private static final VectorSpecies<Float> SPECIES = (FloatVector.SPECIES_PREFERRED.vectorBitSize() > 256 ? FloatVector.SPECIES_256 : FloatVector.SPECIES_PREFERRED);
+        private static final int LANES = SPECIES.length();
+        private static final long LANES_MASK = -1L >>> (64 - LANES);
+
+        private static final FloatVector IOTA;
+
+        static {
+            float[] iota = new float[LANES];
+            for (int i = 0; i < LANES; i++) {
+                iota[i] = i;
+            }
+            IOTA = FloatVector.fromArray(SPECIES, iota, 0);
+        }
+
+        private static VectorMask<Float> depthTest(DepthFunction function, FloatVector depth, FloatVector currentDepth, VectorMask<Float> mask) {
+            switch (function) {
+                case LESS:
+                    return mask.and(depth.compare(VectorOperators.LT, currentDepth));
+                case EQUAL:
+                    return mask.and(depth.compare(VectorOperators.EQ, currentDepth));
+                case LESS_EQUAL:
+                    return mask.and(depth.compare(VectorOperators.LE, currentDepth));
+                case GREATER:
+                    return mask.and(depth.compare(VectorOperators.GT, currentDepth));
+                case NOT_EQUAL:
+                    return mask.and(depth.compare(VectorOperators.NE, currentDepth));
+                case GREATER_EQUAL:
+                    return mask.and(depth.compare(VectorOperators.GE, currentDepth));
+                case ALWAYS:
+                    return mask;
+                default:
+                    return SPECIES.maskAll(false);
+            }
+        }
+
+        private static FloatVector plane(float[] planes, int p, int attribute, FloatVector xPos, float yPos) {
+            float row = (planes[p + (attribute * 3) + 1] * yPos) + planes[p + (attribute * 3) + 2];
+            return xPos.mul(planes[p + (attribute * 3) + 0]).add(row);
+        }
+
+        public static void renderLine(Rasterizer rasterizer, int triangle, int y, int minX, int maxX, boolean covered, WorkerScratch scratch) {
+            //the fixed point coverage is shared with the scalar spans
+            long coverage = rasterizer.spanCoverage(triangle, y, minX, maxX, covered);
+            float yPos = y + 0.5f;
+
+            int p = triangle * Rasterizer.PLANES_SIZE;
+            float[] planes = rasterizer.planes;
+            float depthStep = planes[p + (CZ * 3) + 0];
+            float rowDepth = (planes[p + (CZ * 3) + 1] * yPos) + planes[p + (CZ * 3) + 2];
+            float minDepth = rasterizer.depthRanges[(triangle * 2) + 0];
+            float maxDepth = rasterizer.depthRanges[(triangle * 2) + 1];
+
+            float[] surfaceDepth = rasterizer.surface.depthBuffer;
+            int rowOffset = y * rasterizer.width;
+
+            for (int x = minX; x < maxX; x += LANES) {
+                long lanes = coverage >>> (x - minX);
+                if (lanes == 0L) {
+                    //nothing else to cover on this row
+                    break;
+                }
+                if ((lanes & LANES_MASK) == 0L) {
+                    continue;
+                }
+                VectorMask<Float> mask = VectorMask.fromLong(SPECIES, lanes);
+
+                //same operations as the scalar span, so both give the same depth
+                FloatVector xPos = IOTA.add(x + 0.5f);
+                int pixelIndex = x + rowOffset;
+                FloatVector depth = xPos.mul(depthStep).add(rowDepth).max(minDepth).min(maxDepth);
+                FloatVector currentDepth = FloatVector.fromArray(SPECIES, surfaceDepth, pixelIndex, mask);
+                mask = depthTest(rasterizer.depthFunction, depth, currentDepth, mask);
+                if (!mask.anyTrue()) {
+                    continue;
+                }
+                if (rasterizer.keepsSpanDepth) {
+                    //written only if the pixel passes the alpha test, or weights the transparency
+                    depth.intoArray(scratch.spanDepth, 0);
+                } else if (rasterizer.depthWrite) {
+                    depth.intoArray(surfaceDepth, pixelIndex, mask);
+                }
+
+                if (rasterizer.depthOnly && !rasterizer.alphaTested) {
+                    continue;
+                }
+
+                shade(rasterizer, p, x, yPos, pixelIndex, mask.toLong(), scratch);
+            }
+        }
+
+        private static void shade(Rasterizer rasterizer, int p, int x, float yPos, int pixelIndex, long lanes, WorkerScratch scratch) {
+            Surface surface = rasterizer.surface;
+
+            interpolateColor(rasterizer, p, x, yPos, scratch);
+            rasterizer.textureStage.sample(lanes, scratch);
+            if (rasterizer.alphaTested) {
+                lanes = rasterizer.alphaTest(lanes, pixelIndex, scratch);
+                if (lanes == 0L || rasterizer.depthOnly) {
+                    return;
+                }
+            }
+
+            //the lighting stage picked for the draw, the lit and deferred stages get vectorized normals
+            LightingStage lighting = rasterizer.lightingStage;
+            if (lighting == rasterizer.litStage) {
+                interpolatePositionAndNormal(rasterizer, p, x, yPos, scratch);
+                light(rasterizer.litStage, lanes, scratch);
+            } else if (lighting == rasterizer.deferredStage) {
+                interpolatePositionAndNormal(rasterizer, p, x, yPos, scratch);
+                rasterizer.deferredStage.write(lanes, pixelIndex, scratch);
+            } else {
+                lighting.shade(lanes, pixelIndex, scratch);
+            }
+
+            if (rasterizer.blendMode == BlendMode.ALPHA) {
+                blend(surface.colorBuffer, pixelIndex, lanes, scratch.spanR, scratch.spanG, scratch.spanB, scratch);
+            } else {
+                //the other modes read little or nothing from the destination, they are scalar
+                rasterizer.blendStage.blend(surface.colorBuffer, lanes, pixelIndex, scratch.spanR, scratch.spanG, scratch.spanB, scratch);
+            }
+        }
+
+        private static void interpolateColor(Rasterizer rasterizer, int p, int x, float yPos, WorkerScratch scratch) {
+            float[] planes = rasterizer.planes;
+            FloatVector xPos = IOTA.add(x + 0.5f);
+
+            FloatVector w = FloatVector.broadcast(SPECIES, 1f).div(plane(planes, p, CW_INV, xPos, yPos));
+            w.intoArray(scratch.spanW, 0);
+
+            plane(planes, p, R, xPos, yPos).mul(rasterizer.colorR).mul(w).intoArray(scratch.spanR, 0);
+            plane(planes, p, G, xPos, yPos).mul(rasterizer.colorG).mul(w).intoArray(scratch.spanG, 0);
+            plane(planes, p, B, xPos, yPos).mul(rasterizer.colorB).mul(w).intoArray(scratch.spanB, 0);
+            plane(planes, p, A, xPos, yPos).mul(rasterizer.colorA).mul(w).intoArray(scratch.spanA, 0);
+
+            if (rasterizer.textured) {
+                plane(planes, p, U, xPos, yPos).mul(w).intoArray(scratch.spanU, 0);
+                plane(planes, p, V, xPos, yPos).mul(w).intoArray(scratch.spanV, 0);
+            }
+        }
+
+        private static void interpolatePositionAndNormal(Rasterizer rasterizer, int p, int x, float yPos, WorkerScratch scratch) {
+            float[] planes = rasterizer.planes;
+            FloatVector xPos = IOTA.add(x + 0.5f);
+            FloatVector w = FloatVector.fromArray(SPECIES, scratch.spanW, 0);
+
+            //w cancels out in the normalization, the same operations as the scalar lighting stages
+            FloatVector nx = plane(planes, p, NX, xPos, yPos);
+            FloatVector ny = plane(planes, p, NY, xPos, yPos);
+            FloatVector nz = plane(planes, p, NZ, xPos, yPos);
+            FloatVector lengthinv = FloatVector.broadcast(SPECIES, 1f).div(nx.mul(nx).add(ny.mul(ny)).add(nz.mul(nz)).sqrt());
+            nx.mul(lengthinv).intoArray(scratch.spanNX, 0);
+            ny.mul(lengthinv).intoArray(scratch.spanNY, 0);
+            nz.mul(lengthinv).intoArray(scratch.spanNZ, 0);
+
+            plane(planes, p, X, xPos, yPos).mul(w).intoArray(scratch.spanX, 0);
+            plane(planes, p, Y, xPos, yPos).mul(w).intoArray(scratch.spanY, 0);
+            plane(planes, p, Z, xPos, yPos).mul(w).intoArray(scratch.spanZ, 0);
+        }
+
+        //LitStage.light for a whole vector, the sun with the constants of the stage, then the lights of each pixel
+        private static void light(LitStage stage, long lanes, WorkerScratch scratch) {
+            FloatVector cr = FloatVector.fromArray(SPECIES, scratch.spanR, 0);
+            FloatVector cg = FloatVector.fromArray(SPECIES, scratch.spanG, 0);
+            FloatVector cb = FloatVector.fromArray(SPECIES, scratch.spanB, 0);
+
+            FloatVector r;
+            FloatVector g;
+            FloatVector b;
+            if (stage.sun) {
+                FloatVector diffuse = FloatVector.fromArray(SPECIES, scratch.spanNX, 0).mul(stage.sunX)
+                        .add(FloatVector.fromArray(SPECIES, scratch.spanNY, 0).mul(stage.sunY))
+                        .add(FloatVector.fromArray(SPECIES, scratch.spanNZ, 0).mul(stage.sunZ))
+                        .max(0f);
+
+                r = cr.mul(stage.sunAmbientR).add(diffuse.mul(stage.sunDiffuseR).mul(cr));
+                g = cg.mul(stage.sunAmbientG).add(diffuse.mul(stage.sunDiffuseG).mul(cg));
+                b = cb.mul(stage.sunAmbientB).add(diffuse.mul(stage.sunDiffuseB).mul(cb));
+            } else {
+                r = FloatVector.zero(SPECIES);
+                g = r;
+                b = r;
+            }
+
+            if (stage.numberOfLights == 0) {
+                r.intoArray(scratch.spanR, 0);
+                g.intoArray(scratch.spanG, 0);
+                b.intoArray(scratch.spanB, 0);
+                return;
+            }
+
+            r.intoArray(scratch.spanLightR, 0);
+            g.intoArray(scratch.spanLightG, 0);
+            b.intoArray(scratch.spanLightB, 0);
+            float[] result = scratch.lightColor;
+            for (long bits = lanes; bits != 0; bits &= (bits - 1)) {
+                int lane = Long.numberOfTrailingZeros(bits);
+                result[0] = scratch.spanLightR[lane];
+                result[1] = scratch.spanLightG[lane];
+                result[2] = scratch.spanLightB[lane];
+                stage.addLights(
+                        scratch.spanR[lane], scratch.spanG[lane], scratch.spanB[lane],
+                        scratch.spanX[lane], scratch.spanY[lane], scratch.spanZ[lane],
+                        scratch.spanNX[lane], scratch.spanNY[lane], scratch.spanNZ[lane],
+                        scratch.diffuseAmbientFactors, result
+                );
+                scratch.spanR[lane] = result[0];
+                scratch.spanG[lane] = result[1];
+                scratch.spanB[lane] = result[2];
+            }
+        }
+
+        private static void blend(float[] surfaceColor, int pixelIndex, long lanes, float[] colorR, float[] colorG, float[] colorB, WorkerScratch scratch) {
+            //the color buffer is interleaved, it goes through the span arrays
+            float[] dstArrayR = scratch.spanDstR;
+            float[] dstArrayG = scratch.spanDstG;
+            float[] dstArrayB = scratch.spanDstB;
+            float[] dstArrayA = scratch.spanDstA;
+            for (long bits = lanes; bits != 0; bits &= (bits - 1)) {
+                int lane = Long.numberOfTrailingZeros(bits);
+                int index = (pixelIndex + lane) * 4;
+                dstArrayR[lane] = surfaceColor[index + 0];
+                dstArrayG[lane] = surfaceColor[index + 1];
+                dstArrayB[lane] = surfaceColor[index + 2];
+                dstArrayA[lane] = surfaceColor[index + 3];
+            }
+
+            FloatVector cr = FloatVector.fromArray(SPECIES, colorR, 0);
+            FloatVector cg = FloatVector.fromArray(SPECIES, colorG, 0);
+            FloatVector cb = FloatVector.fromArray(SPECIES, colorB, 0);
+            FloatVector ca = FloatVector.fromArray(SPECIES, scratch.spanA, 0);
+            FloatVector dstR = FloatVector.fromArray(SPECIES, dstArrayR, 0);
+            FloatVector dstG = FloatVector.fromArray(SPECIES, dstArrayG, 0);
+            FloatVector dstB = FloatVector.fromArray(SPECIES, dstArrayB, 0);
+            FloatVector dstA = FloatVector.fromArray(SPECIES, dstArrayA, 0);
+
+            FloatVector invSrcA = FloatVector.broadcast(SPECIES, 1f).sub(ca);
+
+            //opaque destination
+            VectorMask<Float> opaque = dstA.compare(VectorOperators.EQ, 1f);
+            FloatVector opaqueR = cr.mul(ca).add(dstR.mul(invSrcA));
+            FloatVector opaqueG = cg.mul(ca).add(dstG.mul(invSrcA));
+            FloatVector opaqueB = cb.mul(ca).add(dstB.mul(invSrcA));
+
+            //translucent destination
+            FloatVector outA = ca.add(dstA.mul(invSrcA));
+            VectorMask<Float> empty = outA.compare(VectorOperators.EQ, 0f);
+            FloatVector invOutA = FloatVector.broadcast(SPECIES, 1f).div(outA);
+            FloatVector outR = cr.mul(ca).add(dstR.mul(dstA).mul(invSrcA)).mul(invOutA);
+            FloatVector outG = cg.mul(ca).add(dstG.mul(dstA).mul(invSrcA)).mul(invOutA);
+            FloatVector outB = cb.mul(ca).add(dstB.mul(dstA).mul(invSrcA)).mul(invOutA);
+
+            outR.blend(0f, empty).blend(opaqueR, opaque).intoArray(dstArrayR, 0);
+            outG.blend(0f, empty).blend(opaqueG, opaque).intoArray(dstArrayG, 0);
+            outB.blend(0f, empty).blend(opaqueB, opaque).intoArray(dstArrayB, 0);
+            outA.blend(1f, opaque).intoArray(dstArrayA, 0);
+
+            for (long bits = lanes; bits != 0; bits &= (bits - 1)) {
+                int lane = Long.numberOfTrailingZeros(bits);
+                int index = (pixelIndex + lane) * 4;
+                surfaceColor[index + 0] = dstArrayR[lane];
+                surfaceColor[index + 1] = dstArrayG[lane];
+                surfaceColor[index + 2] = dstArrayB[lane];
+                surfaceColor[index + 3] = dstArrayA[lane];
+            }
+        }
+    }
+
+    //deferred lighting pass
+    private class DeferredShader {
+
+        private static final int ROWS_PER_JOB = 8;
+
+        private final SoftwareRenderer renderer;
+        private final LitStage lighting = new LitStage();
+        private final Runnable shadeRowsJob = this::shadeRows;
+        private final AtomicInteger nextRow = new AtomicInteger();
+
+        private Surface surface;
+
+        public DeferredShader(SoftwareRenderer renderer) {
+            this.renderer = renderer;
+        }
+
+        public void render() {
+            this.surface = this.renderer.getSurface();
+            if (this.surface.normalBuffer == null) {
+                this.surface = null;
+                return;
+            }
+
+            this.lighting.set(this.renderer);
+            this.nextRow.set(0);
+            if (!this.renderer.isMultithreadEnabled() || !WORKERS.run(this.shadeRowsJob)) {
+                shadeRows();
+            }
+
+            this.surface = null;
+        }
+
+        private void shadeRows() {
+            if (this.surface.samples != 1) {
+                shadeMultisampleRows();
+                return;
+            }
+
+            WorkerScratch scratch = SCRATCH.get();
+            float[] color = this.surface.colorBuffer;
+            float[] normal = this.surface.normalBuffer;
+            float[] position = this.surface.positionBuffer;
+            int width = this.surface.getWidth();
+            int height = this.surface.getHeight();
+            boolean unlit = !this.renderer.isSunEnabled() && this.renderer.getLights().isEmpty();
+
+            int firstRow;
+            while ((firstRow = this.nextRow.getAndAdd(ROWS_PER_JOB)) < height) {
+                int lastRow = Math.min(firstRow + ROWS_PER_JOB, height);
+                for (int i = firstRow * width; i < lastRow * width; i++) {
+                    if (Float.isNaN(normal[(i * 3) + 0])) {
+                        continue;
+                    }
+
+                    if (!unlit) {
+                        this.lighting.light(
+                                color[(i * 4) + 0], color[(i * 4) + 1], color[(i * 4) + 2],
+                                position[(i * 3) + 0], position[(i * 3) + 1], position[(i * 3) + 2],
+                                normal[(i * 3) + 0], normal[(i * 3) + 1], normal[(i * 3) + 2],
+                                scratch.diffuseAmbientFactors, scratch.lightColor
+                        );
+                        color[(i * 4) + 0] = scratch.lightColor[0];
+                        color[(i * 4) + 1] = scratch.lightColor[1];
+                        color[(i * 4) + 2] = scratch.lightColor[2];
+                    }
+
+                    //shaded only once
+                    normal[(i * 3) + 0] = Float.NaN;
+                }
+            }
+        }
+
+        //the g-buffer has one normal and position per pixel, the lighting is linear in the albedo,
+        //so it is computed once per pixel and applied to every sample written by a deferred draw
+        private void shadeMultisampleRows() {
+            WorkerScratch scratch = SCRATCH.get();
+            float[][] colors = this.surface.sampleColorBuffers;
+            byte[] deferredSamples = this.surface.deferredSamples;
+            float[] normal = this.surface.normalBuffer;
+            float[] position = this.surface.positionBuffer;
+            int width = this.surface.getWidth();
+            int height = this.surface.getHeight();
+            boolean unlit = !this.renderer.isSunEnabled() && this.renderer.getLights().isEmpty();
+
+            int firstRow;
+            while ((firstRow = this.nextRow.getAndAdd(ROWS_PER_JOB)) < height) {
+                int lastRow = Math.min(firstRow + ROWS_PER_JOB, height);
+                for (int i = firstRow * width; i < lastRow * width; i++) {
+                    int mask = deferredSamples[i];
+                    if (mask == 0 || Float.isNaN(normal[(i * 3) + 0])) {
+                        continue;
+                    }
+
+                    if (!unlit) {
+                        this.lighting.light(
+                                1f, 1f, 1f,
+                                position[(i * 3) + 0], position[(i * 3) + 1], position[(i * 3) + 2],
+                                normal[(i * 3) + 0], normal[(i * 3) + 1], normal[(i * 3) + 2],
+                                scratch.diffuseAmbientFactors, scratch.lightColor
+                        );
+                        for (int s = 0; s < colors.length; s++) {
+                            if ((mask & (1 << s)) == 0) {
+                                continue;
+                            }
+                            colors[s][(i * 4) + 0] *= scratch.lightColor[0];
+                            colors[s][(i * 4) + 1] *= scratch.lightColor[1];
+                            colors[s][(i * 4) + 2] *= scratch.lightColor[2];
+                        }
+                    }
+
+                    //shaded only once
+                    normal[(i * 3) + 0] = Float.NaN;
+                    deferredSamples[i] = 0;
+                }
+            }
+        }
+    }
+
+    //surface
+    private int samples;
+    private Surface frontSurface;
+    private Surface backSurface;
+
+    //vertex builder
+    private MeshBuilder builder = null;
+
+    //transformed vertices of previous draws
+    private final VertexCache vertexCache = new VertexCache();
+
+    //vertex stage
+    private final VertexTransformer vertexTransformer = new VertexTransformer(this);
+
+    //rasterizer
+    private final Rasterizer rasterizer = new Rasterizer(this);
+    private final DeferredShader deferredShader = new DeferredShader(this);
+
+    //surface state
+    private final Vector4f clearColor = new Vector4f(0.2f, 0.4f, 0.6f, 1f);
+    private float clearDepth = 1f;
+
+    //rasterizer/processor state
+    private boolean depthOnlyEnabled = false;
+    private boolean bilinearFilteringEnabled = false;
+    private boolean multithreadEnabled = true;
+    private boolean billboardingEnabled = false;
+    private boolean lightingEnabled = true;
+    private boolean sunEnabled = true;
+    private boolean deferredShadingEnabled = false;
+    private boolean depthWriteEnabled = true;
+    private DepthFunction depthFunction = DepthFunction.LESS_EQUAL;
+    private boolean vectorizationEnabled = false;
+    private BlendMode blendMode = BlendMode.ALPHA;
+    private boolean alphaTestEnabled = false;
+    private boolean vertexCacheEnabled = true;
+    private boolean frustumCullingEnabled = true;
+    private float alphaTestThreshold = 0.5f;
+
+    //sun state
+    private final Vector3f sunDirection = new Vector3f(-1f, -1f, -1f).normalize();
+    private final Vector3f sunDiffuse = new Vector3f(0.8f, 0.75f, 0.70f);
+    private final Vector3f sunAmbient = new Vector3f(0.3f, 0.3f, 0.3f);
+
+    //lights state
+    private final List<Light> lights = new ArrayList<>();
+
+    //depth pre-pass state, the depth state of before the pre-pass
+    private PrePass prePass = PrePass.NONE;
+    private boolean savedDepthOnlyEnabled = false;
+    private boolean savedDepthWriteEnabled = true;
+    private DepthFunction savedDepthFunction = DepthFunction.LESS_EQUAL;
+
+    //camera state
+    private final Matrix4f projection = new Matrix4f();
+    private final Matrix4f view = new Matrix4f();
+    private final Vector3f cameraPosition = new Vector3f();
+
+    //object state
+    private Mesh mesh = null;
+    private final Matrix4f model = new Matrix4f();
+    private Texture texture = null;
+    private final Vector4f color = new Vector4f(1f, 1f, 1f, 1f);
+
+    public SoftwareRenderer(int width, int height, int samples) {
+        this.samples = samples;
+        this.frontSurface = new Surface(width, height, samples);
+        this.backSurface = new Surface(width, height, samples);
+    }
+
+    public SoftwareRenderer(int width, int height) {
+        this(width, height, 1);
+    }
+
+    public SoftwareRenderer() {
+        this(Surface.DEFAULT_WIDTH, Surface.DEFAULT_HEIGHT);
+    }
+
+    //surface
+    public Surface getSurface() {
+        return this.frontSurface;
+    }
+
+    public Surface getFrontSurface() {
+        return frontSurface;
+    }
+
+    public Surface getBackSurface() {
+        return backSurface;
+    }
+
+    public float getClearDepth() {
+        return clearDepth;
+    }
+
+    public void setClearDepth(float clearDepth) {
+        this.clearDepth = clearDepth;
+    }
+
+    public Vector4f getClearColor() {
+        return clearColor;
+    }
+
+    public void clearBuffers() {
+        this.frontSurface.clearDepth(this.clearDepth);
+        this.frontSurface.clearColor(this.clearColor.x(), this.clearColor.y(), this.clearColor.z(), this.clearColor.w());
+        this.frontSurface.clearGBuffer();
+        this.frontSurface.clearTransparency();
+    }
+
+    public void resize(int width, int height) {
+        this.frontSurface = new Surface(width, height, this.samples);
+        this.backSurface = new Surface(width, height, this.samples);
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    //recreates the surfaces with the new number of samples (1, 2 or 4), their contents are lost
+    public void setSamples(int samples) {
+        if (samples == this.samples) {
+            return;
+        }
+        Surface front = new Surface(getWidth(), getHeight(), samples);
+        Surface back = new Surface(getWidth(), getHeight(), samples);
+        this.samples = samples;
+        this.frontSurface = front;
+        this.backSurface = back;
+    }
+
+    //multisampled surfaces must be resolved before the color or depth buffer is read
+    public void resolve() {
+        this.frontSurface.resolve();
+    }
+
+    public int getWidth() {
+        return this.frontSurface.getWidth();
+    }
+
+    public int getHeight() {
+        return this.frontSurface.getHeight();
+    }
+
+    public Texture colorBuffer() {
+        return this.frontSurface.getColorBufferTexture();
+    }
+
+    public Texture depthBuffer() {
+        return this.frontSurface.getDepthBufferTexture();
+    }
+
+    public BufferedImage colorBufferToImage() {
+        return SoftwareRenderer.textureToImage(this.colorBuffer());
+    }
+
+    public BufferedImage depthBufferToImage() {
+        return SoftwareRenderer.textureToImage(this.depthBuffer());
+    }
+
+    public void flipSurfaces() {
+        Surface front = this.frontSurface;
+        Surface back = this.backSurface;
+        this.frontSurface = back;
+        this.backSurface = front;
+    }
+
+    //mesh builder
+    public void beginMesh() {
+        this.builder = new MeshBuilder();
+    }
+
+    public int position(float x, float y, float z) {
+        return this.builder.position(x, y, z);
+    }
+
+    public int texture(float u, float v) {
+        return this.builder.texture(u, v);
+    }
+
+    public int normal(float nX, float nY, float nZ) {
+        return this.builder.normal(nX, nY, nZ);
+    }
+
+    public int color(float r, float g, float b, float a) {
+        return this.builder.color(r, g, b, a);
+    }
+
+    public void vertex(int positionIndex, int textureIndex, int normalIndex, int colorIndex) {
+        this.builder.vertex(positionIndex, textureIndex, normalIndex, colorIndex);
+    }
+
+    public Mesh finishMesh() {
+        MeshBuilder e = this.builder;
+        this.builder = null;
+        return e.mesh();
+    }
+
+    public void finishMeshAndSet() {
+        this.setMesh(this.finishMesh());
+    }
+
+    //vertex processor state
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    //the transformed vertices of the mesh are cached
+    public void setMesh(Mesh mesh) {
+        this.mesh = mesh;
+    }
+
+    //an unindexed mesh, every three vertices are a triangle,
+    //the array may be edited in place between draws, so its vertices are never cached
+    public void setMesh(float[] vertices) {
+        this.mesh = null;
+        if (vertices != null) {
+            this.mesh = Mesh.wrap(vertices);
+        }
+    }
+
+    public Matrix4f getProjection() {
+        return projection;
+    }
+
+    public Matrix4f getView() {
+        return view;
+    }
+
+    public Vector3f getCameraPosition() {
+        return cameraPosition;
+    }
+
+    public Matrix4f getModel() {
+        return model;
+    }
+
+    public boolean isBillboardingEnabled() {
+        return billboardingEnabled;
+    }
+
+    public void setBillboardingEnabled(boolean billboardingEnabled) {
+        this.billboardingEnabled = billboardingEnabled;
+    }
+
+    //rasterizer
+    public void setTexture(Texture texture) {
+        this.texture = texture;
+    }
+
+    public Texture getTexture() {
+        return texture;
+    }
+
+    public Vector3f getSunDirection() {
+        return sunDirection;
+    }
+
+    public Vector3f getSunDiffuse() {
+        return sunDiffuse;
+    }
+
+    public Vector3f getSunAmbient() {
+        return sunAmbient;
+    }
+
+    public boolean isDepthOnlyEnabled() {
+        return depthOnlyEnabled;
+    }
+
+    public void setDepthOnlyEnabled(boolean depthOnlyEnabled) {
+        this.depthOnlyEnabled = depthOnlyEnabled;
+    }
+
+    public boolean isBilinearFilteringEnabled() {
+        return bilinearFilteringEnabled;
+    }
+
+    public void setBilinearFilteringEnabled(boolean bilinearFilteringEnabled) {
+        this.bilinearFilteringEnabled = bilinearFilteringEnabled;
+    }
+
+    public boolean isMultithreadEnabled() {
+        return multithreadEnabled;
+    }
+
+    public void setMultithreadEnabled(boolean multithreadEnabled) {
+        if (this.multithreadEnabled && !multithreadEnabled) {
+
+        }
+        this.multithreadEnabled = multithreadEnabled;
+    }
+
+    public List<Light> getLights() {
+        return lights;
+    }
+
+    public Vector4f getColor() {
+        return color;
+    }
+
+    public boolean isLightingEnabled() {
+        return lightingEnabled;
+    }
+
+    public void setLightingEnabled(boolean lightingEnabled) {
+        this.lightingEnabled = lightingEnabled;
+    }
+
+    public boolean isSunEnabled() {
+        return sunEnabled;
+    }
+
+    public void setSunEnabled(boolean sunEnabled) {
+        this.sunEnabled = sunEnabled;
+    }
+
+    public boolean isDeferredShadingEnabled() {
+        return deferredShadingEnabled;
+    }
+
+    public void setDeferredShadingEnabled(boolean deferredShadingEnabled) {
+        //draws made while disabled do not clear the g-buffer, so it is cleared before it is used again
+        if (deferredShadingEnabled && !this.deferredShadingEnabled) {
+            this.frontSurface.clearGBuffer();
+            this.backSurface.clearGBuffer();
+        }
+        this.deferredShadingEnabled = deferredShadingEnabled;
+    }
+
+    public boolean isDepthWriteEnabled() {
+        return depthWriteEnabled;
+    }
+
+    public void setDepthWriteEnabled(boolean depthWriteEnabled) {
+        this.depthWriteEnabled = depthWriteEnabled;
+    }
+
+    public static boolean isVectorizationSupported() {
+        return VECTOR_API_AVAILABLE;
+    }
+
+    public boolean isVectorizationEnabled() {
+        return vectorizationEnabled;
+    }
+
+    public void setVectorizationEnabled(boolean vectorizationEnabled) {
+        this.vectorizationEnabled = vectorizationEnabled;
+    }
+
+    public DepthFunction getDepthFunction() {
+        return depthFunction;
+    }
+
+    public void setDepthFunction(DepthFunction depthFunction) {
+        if (depthFunction == null) {
+            depthFunction = DepthFunction.LESS_EQUAL;
+        }
+        this.depthFunction = depthFunction;
+    }
+
+    public BlendMode getBlendMode() {
+        return blendMode;
+    }
+
+    public void setBlendMode(BlendMode blendMode) {
+        if (blendMode == null) {
+            blendMode = BlendMode.ALPHA;
+        }
+        this.blendMode = blendMode;
+    }
+
+    public boolean isAlphaTestEnabled() {
+        return alphaTestEnabled;
+    }
+
+    public void setAlphaTestEnabled(boolean alphaTestEnabled) {
+        this.alphaTestEnabled = alphaTestEnabled;
+    }
+
+    public float getAlphaTestThreshold() {
+        return alphaTestThreshold;
+    }
+
+    //pixels with an alpha below the threshold are discarded when the alpha test is enabled
+    public void setAlphaTestThreshold(float alphaTestThreshold) {
+        this.alphaTestThreshold = alphaTestThreshold;
+    }
+
+    public boolean isVertexCacheEnabled() {
+        return vertexCacheEnabled;
+    }
+
+    public void setVertexCacheEnabled(boolean vertexCacheEnabled) {
+        this.vertexCacheEnabled = vertexCacheEnabled;
+        if (!vertexCacheEnabled) {
+            this.vertexCache.clear();
+        }
+    }
+
+    public boolean isFrustumCullingEnabled() {
+        return frustumCullingEnabled;
+    }
+
+    //draws with the mesh bounds outside of the view are skipped before any vertex is transformed
+    public void setFrustumCullingEnabled(boolean frustumCullingEnabled) {
+        this.frustumCullingEnabled = frustumCullingEnabled;
+    }
+
+    public int getVertexCacheCapacity() {
+        return this.vertexCache.getCapacity();
+    }
+
+    //the most floats (4 bytes each) the vertex cache keeps for every mesh together, the least recently used
+    //transformed vertices are dropped to make room, meshes larger than the capacity are not cached
+    public void setVertexCacheCapacity(int capacity) {
+        this.vertexCache.setCapacity(capacity);
+    }
+
+    //drops the transformed vertices of every mesh
+    public void clearVertexCache() {
+        this.vertexCache.clear();
+    }
+
+    //render
+    public int render() {
+        if (this.mesh == null || this.mesh.getNumberOfTriangles() == 0) {
+            return 0;
+        }
+        VertexLayout layout = this.rasterizer.prepare();
+        int length = this.vertexTransformer.transformAndClip(layout);
+        if (length == 0) {
+            return 0;
+        }
+        this.rasterizer.render(this.vertexTransformer.getOutput(), length);
+
+        return (length / layout.size);
+    }
+
+    //composites the draws made with the ORDER_INDEPENDENT blend mode since the last composite over the surface,
+    //the draws can be made in any order
+    public void compositeTransparency() {
+        this.frontSurface.compositeTransparency();
+    }
+
+    //lights every pixel written by lit draws since the last lighting pass,
+    //draws that need the lit result (like blended ones) should be rendered after it
+    public void shadeDeferred() {
+        this.deferredShader.render();
+    }
+
+    //depth pre-pass, the opaque geometry is drawn twice, first only to the depth buffer
+    //and then shaded with the EQUAL depth function, so every pixel is shaded only once
+    //the depth state set before beginDepthPrePass is restored by endDepthPrePass
+    public void beginDepthPrePass() {
+        if (this.prePass != PrePass.NONE) {
+            throw new IllegalStateException("The depth pre-pass has already begun.");
+        }
+        this.prePass = PrePass.DEPTH;
+        this.savedDepthOnlyEnabled = this.depthOnlyEnabled;
+        this.savedDepthWriteEnabled = this.depthWriteEnabled;
+        this.savedDepthFunction = this.depthFunction;
+
+        this.depthOnlyEnabled = true;
+        this.depthWriteEnabled = true;
+        this.depthFunction = DepthFunction.LESS_EQUAL;
+    }
+
+    public void beginShadingPass() {
+        if (this.prePass != PrePass.DEPTH) {
+            throw new IllegalStateException("The shading pass must begin after the depth pre-pass.");
+        }
+        this.prePass = PrePass.SHADING;
+
+        this.depthOnlyEnabled = false;
+        this.depthWriteEnabled = false;
+        this.depthFunction = DepthFunction.EQUAL;
+    }
+
+    public void endDepthPrePass() {
+        if (this.prePass == PrePass.NONE) {
+            throw new IllegalStateException("The depth pre-pass has not begun.");
+        }
+        this.prePass = PrePass.NONE;
+
+        this.depthOnlyEnabled = this.savedDepthOnlyEnabled;
+        this.depthWriteEnabled = this.savedDepthWriteEnabled;
+        this.depthFunction = this.savedDepthFunction;
+    }
+}
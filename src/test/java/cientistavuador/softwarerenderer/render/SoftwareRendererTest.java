@@ -0,0 +1,590 @@
+package cientistavuador.softwarerenderer.render;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.joml.FrustumIntersection;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class SoftwareRendererTest {
+
+    private static final int WARM_UP_FRAMES = 50;
+    private static final int MEASURED_FRAMES = 20;
+    private static final int MEASUREMENTS = 5;
+
+    //a textured box from min to max
+    private static SoftwareRenderer.Mesh box(SoftwareRenderer renderer, Vector3fc min, Vector3fc max) {
+        renderer.beginMesh();
+        for (int i = 0; i < 8; i++) {
+            renderer.position(
+                    ((i & 1) == 0 ? min.x() : max.x()),
+                    ((i & 2) == 0 ? min.y() : max.y()),
+                    ((i & 4) == 0 ? min.z() : max.z())
+            );
+        }
+        renderer.texture(0f, 0f);
+        renderer.texture(1f, 0f);
+        renderer.texture(1f, 1f);
+        renderer.texture(0f, 1f);
+
+        //the corners of each face in counter clockwise order, seen from outside, followed by its normal
+        int[][] faces = {
+            {2, 4, 8, 6}, {1, 5, 7, 3},
+            {3, 7, 8, 4}, {1, 2, 6, 5},
+            {5, 6, 8, 7}, {1, 3, 4, 2}
+        };
+        float[][] normals = {
+            {1f, 0f, 0f}, {-1f, 0f, 0f},
+            {0f, 1f, 0f}, {0f, -1f, 0f},
+            {0f, 0f, 1f}, {0f, 0f, -1f}
+        };
+        for (int i = 0; i < faces.length; i++) {
+            int[] f = faces[i];
+            int n = renderer.normal(normals[i][0], normals[i][1], normals[i][2]);
+            renderer.vertex(f[0], 1, n, 0);
+            renderer.vertex(f[1], 2, n, 0);
+            renderer.vertex(f[2], 3, n, 0);
+            renderer.vertex(f[0], 1, n, 0);
+            renderer.vertex(f[2], 3, n, 0);
+            renderer.vertex(f[3], 4, n, 0);
+        }
+        return renderer.finishMesh();
+    }
+
+    //a textured cube of side 2 centered at the origin
+    private static SoftwareRenderer.Mesh cube(SoftwareRenderer renderer) {
+        return box(renderer, new Vector3f(-1f), new Vector3f(1f));
+    }
+
+    private static SoftwareRenderer.Texture checkerboard() {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (((x ^ y) & 4) == 0 ? 0xFFFFFFFF : 0xFF4080C0));
+            }
+        }
+        return SoftwareRenderer.imageToTexture(image);
+    }
+
+    private static SoftwareRenderer scene(int samples) {
+        SoftwareRenderer renderer = new SoftwareRenderer(160, 120, samples);
+        renderer.setMultithreadEnabled(false);
+        renderer.setTexture(checkerboard());
+        renderer.setMesh(cube(renderer));
+        renderer.getProjection().setPerspective((float) Math.toRadians(90.0), 160f / 120f, 0.1f, 100f);
+
+        SoftwareRenderer.PointLight light = new SoftwareRenderer.PointLight();
+        light.getPosition().set(2f, 3f, 1f);
+        renderer.getLights().add(light);
+        SoftwareRenderer.SpotLight spot = new SoftwareRenderer.SpotLight();
+        spot.getPosition().set(-2f, 1f, 2f);
+        renderer.getLights().add(spot);
+        renderer.setLightingEnabled(true);
+        renderer.setSunEnabled(true);
+        return renderer;
+    }
+
+    //one cube in front of the camera and one crossing the near plane, both spinning, so every frame
+    //transforms, culls and clips new vertices
+    private static int frame(SoftwareRenderer renderer, int frame) {
+        float angle = frame * 0.05f;
+        renderer.clearBuffers();
+        renderer.getCameraPosition().set(0f, 0.5f, 4f);
+
+        int vertices = 0;
+        renderer.getModel().identity().rotateY(angle).rotateX(angle * 0.5f);
+        vertices += renderer.render();
+        renderer.getModel().identity().translate(0.5f, 0f, 3.5f).rotateY(-angle);
+        vertices += renderer.render();
+
+        if (renderer.isDeferredShadingEnabled()) {
+            renderer.shadeDeferred();
+        }
+        return vertices;
+    }
+
+    private static float[] colors(SoftwareRenderer renderer) {
+        SoftwareRenderer.Texture texture = renderer.getSurface().getColorBufferTexture();
+        float[] colors = new float[texture.width() * texture.height() * 4];
+        for (int y = 0; y < texture.height(); y++) {
+            for (int x = 0; x < texture.width(); x++) {
+                texture.fetch(x, y, colors, (x + (y * texture.width())) * 4);
+            }
+        }
+        return colors;
+    }
+
+    //after a few frames every buffer of the renderer has grown to the scene, later frames must not allocate,
+    //the jit may still allocate a few bytes while it recompiles, so a measurement is retried a few times,
+    //an allocation made by every frame shows up in all of them
+    private static void assertSteadyStateDoesNotAllocate(SoftwareRenderer renderer) {
+        int frame = 0;
+        int vertices = 0;
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            vertices += frame(renderer, frame++);
+        }
+        assertTrue(vertices > 0, "nothing was drawn");
+
+        //getting the bean allocates, reading it does not
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < MEASUREMENTS && allocated != 0; i++) {
+            long before = bean.getThreadAllocatedBytes(thread);
+            for (int j = 0; j < MEASURED_FRAMES; j++) {
+                frame(renderer, frame++);
+            }
+            allocated = bean.getThreadAllocatedBytes(thread) - before;
+        }
+        assertEquals(0L, allocated, "bytes allocated by " + MEASURED_FRAMES + " frames");
+    }
+
+    @Test
+    public void testForwardFramesDoNotAllocate() {
+        assertSteadyStateDoesNotAllocate(scene(1));
+    }
+
+    @Test
+    public void testDeferredFramesDoNotAllocate() {
+        SoftwareRenderer renderer = scene(1);
+        renderer.setDeferredShadingEnabled(true);
+        assertSteadyStateDoesNotAllocate(renderer);
+    }
+
+    @Test
+    public void testMultisampledFramesDoNotAllocate() {
+        assertSteadyStateDoesNotAllocate(scene(4));
+    }
+
+    @Test
+    public void testUncachedFramesDoNotAllocate() {
+        SoftwareRenderer renderer = scene(1);
+        renderer.setVertexCacheEnabled(false);
+        assertSteadyStateDoesNotAllocate(renderer);
+    }
+
+    //a tall thin box left of a 90 degrees frustum, its bounding sphere reaches into the frustum but the box does not
+    @Test
+    public void testBoxBesideTheFrustumIsCulled() {
+        SoftwareRenderer renderer = new SoftwareRenderer(64, 64);
+        renderer.setMultithreadEnabled(false);
+        renderer.getProjection().setPerspective((float) Math.toRadians(90.0), 1f, 0.1f, 100f);
+
+        SoftwareRenderer.Mesh beside = box(renderer, new Vector3f(-3.1f, -10f, -2.1f), new Vector3f(-2.9f, 10f, -1.9f));
+        FrustumIntersection frustum = new FrustumIntersection(renderer.getProjection());
+        Vector3fc center = beside.getCenter();
+        assertTrue(frustum.testSphere(center.x(), center.y(), center.z(), beside.getRadius()), "the sphere must intersect");
+        assertEquals(FrustumIntersection.OUTSIDE, beside.intersectFrustum(frustum));
+        renderer.setMesh(beside);
+        assertEquals(0, renderer.render());
+
+        SoftwareRenderer.Mesh crossing = box(renderer, new Vector3f(-0.1f, -10f, -2.1f), new Vector3f(0.1f, 10f, -1.9f));
+        assertEquals(FrustumIntersection.INTERSECT, crossing.intersectFrustum(frustum));
+        renderer.setMesh(crossing);
+        assertTrue(renderer.render() > 0, "the crossing box must be drawn");
+    }
+
+    //cached vertices are kept in the layout of the draw, and a mesh larger than the cache is transformed every draw
+    @Test
+    public void testCachedFramesMatchUncachedFrames() {
+        SoftwareRenderer uncached = scene(1);
+        uncached.setVertexCacheEnabled(false);
+        SoftwareRenderer cached = scene(1);
+        SoftwareRenderer full = scene(1);
+        full.setVertexCacheCapacity(0);
+
+        for (int i = 0; i < 4; i++) {
+            //every frame is drawn twice, the second time from the cache
+            assertTrue(frame(uncached, i / 2) > 0, "nothing was drawn");
+            frame(cached, i / 2);
+            frame(full, i / 2);
+            assertArrayEquals(colors(uncached), colors(cached), "frame " + i);
+            assertArrayEquals(colors(uncached), colors(full), "frame " + i);
+        }
+    }
+
+    //a mesh keeps its vertices as columns, an array given to setMesh is read on every draw, both draw the same
+    private static void assertWrappedArrayMatchesMesh(boolean vectorized) {
+        SoftwareRenderer columns = scene(1);
+        columns.setVectorizationEnabled(vectorized);
+        SoftwareRenderer wrapped = scene(1);
+        wrapped.setVectorizationEnabled(vectorized);
+
+        SoftwareRenderer.Mesh mesh = columns.getMesh();
+        float[] vertices = mesh.getVertices();
+        assertArrayEquals(vertices, new SoftwareRenderer.Mesh(vertices, mesh.getIndices()).getVertices());
+
+        int size = vertices.length / mesh.getNumberOfVertices();
+        int[] indices = mesh.getIndices();
+        float[] stream = new float[indices.length * size];
+        for (int i = 0; i < indices.length; i++) {
+            System.arraycopy(vertices, indices[i] * size, stream, i * size, size);
+        }
+        wrapped.setMesh(stream);
+        assertTrue(wrapped.getMesh().getVertices() == stream, "the array must be wrapped");
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(frame(columns, i * 10) > 0, "nothing was drawn");
+            frame(wrapped, i * 10);
+            assertArrayEquals(colors(columns), colors(wrapped), "frame " + (i * 10));
+        }
+    }
+
+    @Test
+    public void testWrappedArrayMatchesMesh() {
+        assertWrappedArrayMatchesMesh(false);
+    }
+
+    @Test
+    public void testVectorizedWrappedArrayMatchesMesh() {
+        assertWrappedArrayMatchesMesh(true);
+    }
+
+    //compressed vertices decode to the original ones within the error of their encoding
+    @Test
+    public void testCompressedVerticesRoundTrip() {
+        //position, uv, normal and color of each vertex, like the MeshBuilder layout
+        int size = 3 + 2 + 3 + 4;
+        int numberOfVertices = 300;
+        Random random = new Random(1234);
+        float[] vertices = new float[numberOfVertices * size];
+        for (int i = 0; i < numberOfVertices; i++) {
+            int v = i * size;
+            vertices[v + 0] = (random.nextFloat() * 20f) - 10f;
+            vertices[v + 1] = (random.nextFloat() * 2f) - 1f;
+            vertices[v + 2] = random.nextFloat() * 500f;
+            vertices[v + 3] = (random.nextFloat() * 4f) - 2f;
+            vertices[v + 4] = random.nextFloat();
+            Vector3f normal = new Vector3f(
+                    (float) random.nextGaussian(),
+                    (float) random.nextGaussian(),
+                    (float) random.nextGaussian()
+            ).normalize();
+            vertices[v + 5] = normal.x();
+            vertices[v + 6] = normal.y();
+            vertices[v + 7] = normal.z();
+            for (int c = 0; c < 4; c++) {
+                vertices[v + 8 + c] = random.nextFloat();
+            }
+        }
+        SoftwareRenderer.Mesh mesh = new SoftwareRenderer.Mesh(vertices);
+        SoftwareRenderer.Mesh compressed = mesh.compress();
+        assertTrue(compressed.isCompressed(), "the mesh must be compressed");
+        float[] decoded = compressed.getVertices();
+        assertEquals(vertices.length, decoded.length);
+
+        //quantized to 65535 steps of their bounds, an octahedron of 32767 steps per axis and 255 steps
+        float[] extents = {20f, 2f, 500f, 4f, 1f};
+        for (int i = 0; i < numberOfVertices; i++) {
+            int v = i * size;
+            for (int c = 0; c < extents.length; c++) {
+                float error = extents[c] / 65535f;
+                assertEquals(vertices[v + c], decoded[v + c], error, "vertex " + i + " component " + c);
+            }
+            float cosine = (vertices[v + 5] * decoded[v + 5]) + (vertices[v + 6] * decoded[v + 6]) + (vertices[v + 7] * decoded[v + 7]);
+            assertTrue(cosine > 0.99999f, "vertex " + i + " normal, cosine " + cosine);
+            for (int c = 8; c < size; c++) {
+                assertEquals(vertices[v + c], decoded[v + c], (0.5f / 255f) + 1e-6f, "vertex " + i + " component " + c);
+            }
+        }
+
+        //the colors of a constant color mesh are kept as they are
+        SoftwareRenderer renderer = new SoftwareRenderer(16, 16);
+        SoftwareRenderer.Mesh cube = cube(renderer).compress();
+        assertTrue(cube.isConstantColor(), "the cube has no colors");
+        float[] cubeVertices = cube.getVertices();
+        for (int v = 0; v < cubeVertices.length; v += size) {
+            for (int c = 8; c < size; c++) {
+                assertEquals(1f, cubeVertices[v + c]);
+            }
+        }
+    }
+
+    //compressed meshes are decoded into columns for the vertex stage, so they are vectorized too
+    @Test
+    public void testVectorizedCompressedMeshMatchesScalar() {
+        assertTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(), "the vector module is required");
+
+        SoftwareRenderer scalar = scene(1);
+        scalar.setMesh(scalar.getMesh().compress());
+        SoftwareRenderer vectorized = scene(1);
+        vectorized.setMesh(vectorized.getMesh().compress());
+        vectorized.setVectorizationEnabled(true);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(frame(scalar, i * 10) > 0, "nothing was drawn");
+            frame(vectorized, i * 10);
+            assertArrayEquals(colors(scalar), colors(vectorized), "frame " + (i * 10));
+        }
+    }
+
+    //an unlit renderer with a black surface and a view in pixels, x to the right and y up
+    private static SoftwareRenderer flat(int samples) {
+        SoftwareRenderer renderer = new SoftwareRenderer(64, 64, samples);
+        renderer.setMultithreadEnabled(false);
+        renderer.setLightingEnabled(false);
+        renderer.getClearColor().set(0f, 0f, 0f, 1f);
+        renderer.getProjection().setOrtho(0f, 64f, 0f, 64f, -1f, 1f);
+        renderer.clearBuffers();
+        return renderer;
+    }
+
+    //untextured triangles from pairs of x and y, three pairs per triangle, shared corners become shared vertices
+    private static SoftwareRenderer.Mesh triangles(SoftwareRenderer renderer, float... xy) {
+        renderer.beginMesh();
+        for (int i = 0; i < xy.length; i += 2) {
+            int position = renderer.position(xy[i], xy[i + 1], 0f);
+            renderer.vertex(position, 0, 0, 0);
+        }
+        return renderer.finishMesh();
+    }
+
+    //a quad split along its diagonal from x0, y0 to x2, y2, the corners are counter clockwise
+    private static SoftwareRenderer.Mesh quad(SoftwareRenderer renderer, float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3) {
+        return triangles(renderer,
+                x0, y0, x1, y1, x2, y2,
+                x0, y0, x2, y2, x3, y3
+        );
+    }
+
+    //the red channel of every pixel, resolved
+    private static float[] reds(SoftwareRenderer renderer) {
+        renderer.resolve();
+        float[] colors = colors(renderer);
+        float[] reds = new float[colors.length / 4];
+        for (int i = 0; i < reds.length; i++) {
+            reds[i] = colors[i * 4];
+        }
+        return reds;
+    }
+
+    //each triangle adds a quarter, so a pixel (or sample) covered by both triangles of a quad would have a half
+    private static float[] coverage(int samples, float... corners) {
+        SoftwareRenderer renderer = flat(samples);
+        renderer.setBlendMode(SoftwareRenderer.BlendMode.ADDITIVE);
+        renderer.getColor().set(1f, 1f, 1f, 0.25f);
+        renderer.setMesh(quad(renderer, corners[0], corners[1], corners[2], corners[3], corners[4], corners[5], corners[6], corners[7]));
+        assertTrue(renderer.render() > 0, "nothing was drawn");
+        return reds(renderer);
+    }
+
+    private static int count(float[] values, float value) {
+        int count = 0;
+        for (float v : values) {
+            if (Math.abs(v - value) < 1e-5f) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    //the pixel centers of every edge of the square are on its edges, the top left rule covers one edge of each pair,
+    //and the diagonal shared by both triangles is covered once
+    @Test
+    public void testSharedEdgesAreCoveredOnce() {
+        float[] reds = coverage(1, 8.5f, 8.5f, 24.5f, 8.5f, 24.5f, 24.5f, 8.5f, 24.5f);
+        assertEquals(16 * 16, count(reds, 0.25f), "pixels covered once");
+        assertEquals(reds.length - (16 * 16), count(reds, 0f), "pixels not covered");
+    }
+
+    //a quad with no pixel center on its outer edges covers exactly the centers inside of it,
+    //with and without multisampling no pixel or sample is covered twice
+    @Test
+    public void testQuadCoversThePixelCentersInsideOfIt() {
+        //the corners are on the 1/16 pixel grid the vertices are snapped to, so the centers are counted exactly
+        int[] grid = {69, 91, 810, 147, 914, 934, 141, 760};
+        float[] corners = new float[grid.length];
+        for (int i = 0; i < grid.length; i++) {
+            corners[i] = grid[i] / 16f;
+        }
+
+        int inside = 0;
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                boolean in = true;
+                for (int i = 0; i < 4; i++) {
+                    long ax = grid[i * 2];
+                    long ay = grid[(i * 2) + 1];
+                    long bx = grid[((i + 1) % 4) * 2];
+                    long by = grid[(((i + 1) % 4) * 2) + 1];
+                    long side = ((bx - ax) * (((y * 16) + 8) - ay)) - ((by - ay) * (((x * 16) + 8) - ax));
+                    assertTrue(side != 0, "a pixel center is on an outer edge");
+                    in &= side > 0;
+                }
+                if (in) {
+                    inside++;
+                }
+            }
+        }
+
+        float[] reds = coverage(1, corners);
+        assertEquals(inside, count(reds, 0.25f), "pixels covered once");
+        assertEquals(reds.length - inside, count(reds, 0f), "pixels not covered");
+
+        for (float red : coverage(4, corners)) {
+            assertTrue(red <= 0.25f + 1e-5f, "a sample was covered twice: " + red);
+        }
+    }
+
+    //the multisampled edges are resolved to the fraction of the samples covered, the inside stays the same
+    @Test
+    public void testMultisampledEdgesAreResolvedToTheirCoverage() {
+        float[] corners = {4.3f, 5.7f, 50.6f, 9.2f, 57.1f, 58.4f, 8.8f, 47.5f};
+        float area = 0f;
+        for (int i = 0; i < 4; i++) {
+            float ax = corners[i * 2];
+            float ay = corners[(i * 2) + 1];
+            float bx = corners[((i + 1) % 4) * 2];
+            float by = corners[(((i + 1) % 4) * 2) + 1];
+            area += ((ax * by) - (bx * ay)) * 0.5f;
+        }
+
+        float[][] reds = new float[2][];
+        for (int i = 0; i < reds.length; i++) {
+            SoftwareRenderer renderer = flat(i == 0 ? 1 : 4);
+            renderer.setBlendMode(SoftwareRenderer.BlendMode.OPAQUE);
+            renderer.setMesh(quad(renderer, corners[0], corners[1], corners[2], corners[3], corners[4], corners[5], corners[6], corners[7]));
+            assertTrue(renderer.render() > 0, "nothing was drawn");
+            reds[i] = reds(renderer);
+        }
+        float[] single = reds[0];
+        float[] multi = reds[1];
+
+        int partial = 0;
+        float covered = 0f;
+        for (int i = 0; i < multi.length; i++) {
+            assertTrue(single[i] == 0f || single[i] == 1f, "a single sample pixel is covered or not: " + single[i]);
+            float red = multi[i];
+            assertTrue(count(new float[]{red}, 0f) + count(new float[]{red}, 0.25f) + count(new float[]{red}, 0.5f)
+                    + count(new float[]{red}, 0.75f) + count(new float[]{red}, 1f) == 1, "not a fraction of 4 samples: " + red);
+            if (red > 0f && red < 1f) {
+                partial++;
+            }
+            covered += red;
+        }
+        assertTrue(partial > 0, "no edge pixel was partially covered");
+        //the pixels covered by every sample are inside of the single sample quad
+        for (int i = 0; i < multi.length; i++) {
+            if (multi[i] == 1f) {
+                assertEquals(1f, single[i], "pixel " + i);
+            }
+        }
+        //the samples cover the area of the quad up to a fraction of its edges
+        assertEquals(area, covered, area * 0.01f);
+    }
+
+    //a depth pre-pass and a shading pass with the EQUAL depth function draw the same frame as a single pass
+    private static void assertDepthPrePassMatchesSinglePass(int samples) {
+        SoftwareRenderer single = scene(samples);
+        SoftwareRenderer prePass = scene(samples);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(frame(single, i * 10) > 0, "nothing was drawn");
+
+            float angle = i * 10 * 0.05f;
+            prePass.clearBuffers();
+            prePass.getCameraPosition().set(0f, 0.5f, 4f);
+            prePass.beginDepthPrePass();
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1) {
+                    prePass.beginShadingPass();
+                }
+                prePass.getModel().identity().rotateY(angle).rotateX(angle * 0.5f);
+                prePass.render();
+                prePass.getModel().identity().translate(0.5f, 0f, 3.5f).rotateY(-angle);
+                prePass.render();
+            }
+            prePass.endDepthPrePass();
+
+            single.resolve();
+            prePass.resolve();
+            assertArrayEquals(colors(single), colors(prePass), "frame " + (i * 10));
+        }
+    }
+
+    @Test
+    public void testDepthPrePassMatchesSinglePass() {
+        assertDepthPrePassMatchesSinglePass(1);
+    }
+
+    @Test
+    public void testMultisampledDepthPrePassMatchesSinglePass() {
+        assertDepthPrePassMatchesSinglePass(4);
+    }
+
+    //the hierarchical z rejects the parts of the cube behind the box drawn before it,
+    //drawn in the other order nothing is rejected, both orders must draw the same frame
+    @Test
+    public void testOccludedDrawsMatchUnoccludedDraws() {
+        float[][] colors = new float[2][];
+        for (int order = 0; order < 2; order++) {
+            SoftwareRenderer renderer = scene(1);
+            renderer.setBlendMode(SoftwareRenderer.BlendMode.OPAQUE);
+            SoftwareRenderer.Mesh cube = renderer.getMesh();
+            SoftwareRenderer.Mesh occluder = box(renderer, new Vector3f(-1.5f, -1.5f, 1.5f), new Vector3f(0.5f, 0.5f, 2f));
+            renderer.clearBuffers();
+            renderer.getCameraPosition().set(0f, 0.5f, 4f);
+            for (int i = 0; i < 2; i++) {
+                boolean drawOccluder = (i == order);
+                renderer.setMesh(drawOccluder ? occluder : cube);
+                renderer.getModel().identity().rotateY(drawOccluder ? 0f : 0.6f);
+                assertTrue(renderer.render() > 0, "nothing was drawn");
+            }
+            colors[order] = colors(renderer);
+        }
+        assertArrayEquals(colors[0], colors[1]);
+    }
+
+    //draws made while deferred shading is disabled do not write the g-buffer, enabling it again
+    //must not light them with what deferred draws left in it before
+    @Test
+    public void testReenabledDeferredShadingDoesNotReadOldDraws() {
+        SoftwareRenderer renderer = scene(1);
+        renderer.setDeferredShadingEnabled(true);
+        renderer.clearBuffers();
+        renderer.getCameraPosition().set(0f, 0.5f, 4f);
+        assertTrue(renderer.render() > 0, "nothing was drawn");
+
+        renderer.setDeferredShadingEnabled(false);
+        renderer.getModel().identity().rotateY(0.6f);
+        assertTrue(renderer.render() > 0, "nothing was drawn");
+        float[] forward = colors(renderer);
+
+        renderer.setDeferredShadingEnabled(true);
+        renderer.shadeDeferred();
+        assertArrayEquals(forward, colors(renderer));
+    }
+
+    //the vectorized spans light with the constants and operations of the scalar lighting stage
+    private static void assertVectorizedLightingMatchesScalar(boolean deferred) {
+        assertTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(), "the vector module is required");
+
+        SoftwareRenderer scalar = scene(1);
+        scalar.setDeferredShadingEnabled(deferred);
+        SoftwareRenderer vectorized = scene(1);
+        vectorized.setDeferredShadingEnabled(deferred);
+        vectorized.setVectorizationEnabled(true);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(frame(scalar, i * 10) > 0, "nothing was drawn");
+            frame(vectorized, i * 10);
+            assertArrayEquals(colors(scalar), colors(vectorized), "frame " + (i * 10));
+        }
+    }
+
+    @Test
+    public void testVectorizedLightingMatchesScalar() {
+        assertVectorizedLightingMatchesScalar(false);
+    }
+
+    @Test
+    public void testVectorizedDeferredLightingMatchesScalar() {
+        assertVectorizedLightingMatchesScalar(true);
+    }
+
+}